@@ -10,7 +10,6 @@ var kexec = require('kexec'),
     compressor = require('./index'),
     args = process.argv.slice(2);
 
-args.unshift(compressor.jar);
-args.unshift('-jar');
+args = compressor.javaArgs(args);
 args.unshift('java');
 kexec(args.join(' '));
@@ -1,6 +1,7 @@
 
 var spawn = require('child_process').spawn,
     fs = require('fs'),
+    os = require('os'),
     path = require('path'),
     jar,
     exists = fs.exists || path.exists,
@@ -15,6 +16,24 @@ lists.some(function(item) {
 
 exports.jar = jar;
 
+/*
+If the class data sharing archive built by "ant build.cds" is found next to the
+jar, the compressor is started without the Bootstrap class loader, so that the
+JVM can load the classes from the archive. The JVM silently falls back to
+loading the classes from the jar if the archive cannot be used (e.g. it was
+built with another JDK.) Its log messages must not end up on stdout, which is
+where the output goes.
+*/
+exports.javaArgs = function(args) {
+    var cds = jar && jar.replace(/\.jar$/, '.jsa');
+    if (cds && (fs.existsSync || path.existsSync)(cds)) {
+        return ['-XX:SharedArchiveFile=' + cds, '-Xshare:auto',
+            '-Xlog:disable', '-Xlog:all=error:stderr', '-cp', jar,
+            'com.yahoo.platform.yui.compressor.YUICompressor'].concat(args);
+    }
+    return ['-jar', jar].concat(args);
+};
+
 var defaultOptions = {
     charset: 'utf8',
     type: 'js'
@@ -33,7 +52,7 @@ var getString = function(str, callback, options) {
     exists(str, function(y) {
         if (y) {
             var ext = (path.extname(str)).replace('.', '');
-            fs.readFile(str, 'utf8', function(err, data) {
+            fs.readFile(str, options.charset || 'utf8', function(err, data) {
                 //Set the type from the file name
                 options.type = ext;
                 callback(err, data, options);
@@ -57,44 +76,171 @@ var filterOptions = function(options) {
     return options;
 };
 
-var compressString = function(str, options, callback) {
-    //Now we have a string, spawn and pipe it in.
-    
-    options = filterOptions(options);
-
-    var args = [
-        '-jar',
-        exports.jar
-    ], buffer = '', errBuffer = '', child;
+/*
+The JVM workers are started lazily, up to one per CPU, and stay alive so that
+only the first few calls pay for the JVM startup. They run the jar with the
+--batch option, and compress one request at a time: requests are queued until
+a worker is available, so that we never write more to a worker than it can
+handle. Idle workers don't prevent the process from exiting.
+*/
+var maxWorkers = os.cpus().length || 1,
+    workers = [],
+    queue = [];
 
-    Object.keys(options).forEach(function(key) {
-        args.push('--' + key);
-        if (options[key] && options[key] !== true) {
-            args.push(options[key]);
+var setRef = function(worker, ref) {
+    [worker.child, worker.child.stdin, worker.child.stdout].forEach(function(handle) {
+        if (handle && handle[ref ? 'ref' : 'unref']) {
+            handle[ref ? 'ref' : 'unref']();
         }
     });
+};
 
-    child = spawn('java', args, {
-        stdio: ['pipe', 'pipe', 'pipe']
-    });
+var dispatch = function() {
+    var worker, request, header;
 
-    child.stdin.write(str);
-    child.stdin.end();
-    
-    child.stdout.on('data', function(chunk) {
-        buffer += chunk;
-    });
-    child.stderr.on('data', function(chunk) {
-        errBuffer += chunk;
-    });
-    
-    child.on('exit', function() {
-        var err = null;
-        if (errBuffer.indexOf('[ERROR]') > -1) {
+    while (queue.length) {
+        worker = null;
+        workers.some(function(item) {
+            if (!item.request) {
+                worker = item;
+                return true;
+            }
+        });
+        if (!worker) {
+            if (workers.length >= maxWorkers) {
+                return;
+            }
+            worker = startWorker();
+        }
+
+        request = queue.shift();
+        worker.request = request;
+        setRef(worker, true);
+
+        header = 'type=' + request.options.type;
+        Object.keys(request.options).forEach(function(key) {
+            var value = request.options[key];
+            // The payload is always sent in UTF-8, the charset only applies
+            // to the files read by compress.
+            if (key === 'type' || key === 'charset' || value === false || value == null) {
+                return;
+            }
+            header += ' ' + key + (value === true ? '' : '=' + value);
+        });
+        worker.child.stdin.write(header + '\n' + Buffer.byteLength(request.str, 'utf8') + '\n');
+        worker.child.stdin.write(request.str, 'utf8');
+    }
+};
+
+var done = function(worker, err, data, errBuffer) {
+    var request = worker.request;
+    worker.request = null;
+    setRef(worker, false);
+    request.callback(err, data, errBuffer);
+    dispatch();
+};
+
+var startWorker = function() {
+    var worker = {
+        child: spawn('java', exports.javaArgs(['--batch']), {
+            stdio: ['pipe', 'pipe', 'inherit']
+        }),
+        chunks: [],
+        length: 0,
+        // Set once the status line of the response has been received.
+        status: null,
+        request: null
+    };
+
+    worker.child.stdout.on('data', function(chunk) {
+        var buffer, eol, status, outLength, errLength;
+
+        worker.chunks.push(chunk);
+        worker.length += chunk.length;
+
+        // Response: "<status> <output length> <messages length>\n<output><messages>"
+        // The status line is parsed once, then the chunks are only joined
+        // when the whole response has been received.
+        if (!worker.status) {
+            buffer = Buffer.concat(worker.chunks, worker.length);
+            eol = buffer.indexOf ? buffer.indexOf(10) : Array.prototype.indexOf.call(buffer, 10);
+            if (eol < 0) {
+                worker.chunks = [buffer];
+                return;
+            }
+            status = buffer.toString('utf8', 0, eol).split(' ');
+            worker.status = {
+                code: status[0],
+                start: eol + 1,
+                outLength: parseInt(status[1], 10),
+                errLength: parseInt(status[2], 10)
+            };
+            worker.chunks = [buffer];
+        }
+
+        status = worker.status;
+        outLength = status.outLength;
+        errLength = status.errLength;
+        if (worker.length < status.start + outLength + errLength) {
+            return;
+        }
+
+        buffer = Buffer.concat(worker.chunks, worker.length);
+        worker.chunks = [];
+        worker.length = 0;
+        worker.status = null;
+
+        var start = status.start,
+            data = buffer.toString('utf8', start, start + outLength),
+            errBuffer = buffer.toString('utf8', start + outLength, start + outLength + errLength),
+            err = null;
+
+        if (status.code !== '0' || errBuffer.indexOf('[ERROR]') > -1) {
             err = errBuffer;
         }
-        callback(err, buffer, errBuffer);
+        done(worker, err, data, errBuffer);
     });
+
+    var exit = function() {
+        var index = workers.indexOf(worker);
+        if (index > -1) {
+            workers.splice(index, 1);
+        }
+        if (worker.request) {
+            done(worker, '[ERROR] The compressor exited unexpectedly', '', '');
+        }
+    };
+    worker.child.on('error', exit);
+    worker.child.on('exit', exit);
+    // Writing a request to a worker which just died fails with EPIPE.
+    worker.child.stdin.on('error', exit);
+
+    workers.push(worker);
+    return worker;
+};
+
+var checkCharset = function(options) {
+    if (options.charset && !Buffer.isEncoding(options.charset)) {
+        return '[ERROR] Unsupported charset: ' + options.charset;
+    }
+    return null;
+};
+
+var compressString = function(str, options, callback) {
+    options = filterOptions(options);
+    var err = checkCharset(options);
+    if (err) {
+        process.nextTick(function() {
+            callback(err, '', err);
+        });
+        return;
+    }
+    queue.push({
+        str: String(str),
+        options: options,
+        callback: callback
+    });
+    dispatch();
 };
 
 var compress = function(str, options, callback) {
@@ -103,6 +249,14 @@ var compress = function(str, options, callback) {
         options = defaultOptions;
     }
 
+    var err = checkCharset(options);
+    if (err) {
+        process.nextTick(function() {
+            callback(err, '', err);
+        });
+        return;
+    }
+
     getString(str, function(err, str, options) {
 
         compressString(str, options, callback);
@@ -0,0 +1,470 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Author: Julien Lecomte -  http://www.julienlecomte.net/
+ * Copyright (c) 2011 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+import org.mozilla.javascript.EvaluatorException;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * BatchCompressor compresses the input files of the command line, either one
+ * after the other, stopping at the first failure, or using a fixed number of
+ * worker threads (see the --jobs option.) In the latter case, a failure to
+ * compress one of the files does not prevent the other ones from being
+ * compressed. Messages, munge mappings and output sent to stdout are
+ * collected for each file, and written in the order in which the files were
+ * specified, once all the preceding files are done, and nothing is
+ * compressed if two of the files would be written to the same output file.
+ */
+class BatchCompressor {
+
+    private String charset;
+    private int linebreakpos;
+    private boolean munge;
+    private boolean verbose;
+    private boolean preserveAllSemiColons;
+    private boolean disableOptimizations;
+    private boolean preserveUnknownHints;
+    private boolean cssTokenizer;
+    private boolean cssStream;
+    private String typeOverride;
+    private String output;
+    private String[] pattern;
+    private CompressorCache cache;
+
+    BatchCompressor(String charset, int linebreakpos, boolean munge, boolean verbose,
+            boolean preserveAllSemiColons, boolean disableOptimizations,
+            boolean preserveUnknownHints, boolean cssTokenizer, boolean cssStream,
+            String typeOverride, String output, String[] pattern, CompressorCache cache) {
+        this.charset = charset;
+        this.linebreakpos = linebreakpos;
+        this.munge = munge;
+        this.verbose = verbose;
+        this.preserveAllSemiColons = preserveAllSemiColons;
+        this.disableOptimizations = disableOptimizations;
+        this.preserveUnknownHints = preserveUnknownHints;
+        this.cssTokenizer = cssTokenizer;
+        this.cssStream = cssStream;
+        this.typeOverride = typeOverride;
+        this.output = output;
+        this.pattern = pattern;
+        this.cache = cache;
+    }
+
+    /*
+     * The outcome of the compression of a single file.
+     */
+    private static class Result {
+
+        String inputFilename;
+        String outputFilename;
+        // Only used for JavaScript files.
+        StringWriter mungemap;
+        // Only used when the files are compressed concurrently.
+        StringWriter messages;
+        StringWriter out;
+        // 0 on success, or the exit code which would have been used had the
+        // file been compressed on its own.
+        int status;
+
+        Result(String inputFilename) {
+            this.inputFilename = inputFilename;
+        }
+    }
+
+    /*
+     * Compresses the specified files ("-" being stdin) one after the other
+     * if jobs is 0, or using up to jobs threads otherwise, and returns the
+     * exit code: 0 if all the files were compressed successfully, or the
+     * code corresponding to the first failure otherwise.
+     */
+    int compress(List files, int jobs, Writer mungemap) throws IOException {
+
+        Writer stdout = new OutputStreamWriter(System.out, charset);
+
+        if (jobs == 0) {
+            PrintWriter messages = new PrintWriter(System.err, true);
+            for (int i = 0; i < files.size(); i++) {
+                Result result = compressFile((String) files.get(i), false, messages, stdout);
+                if (result.status != 0) {
+                    return result.status;
+                }
+                writeMungemap(result, mungemap);
+            }
+            return 0;
+        }
+
+        // Two workers must never write the same file.
+        HashMap outputs = new HashMap();
+        for (int i = 0; i < files.size(); i++) {
+            String inputFilename = (String) files.get(i);
+            String outputFilename;
+            try {
+                outputFilename = getOutputFilename(inputFilename);
+            } catch (RuntimeException e) {
+                // e.g. an invalid pattern, reported along with the file.
+                continue;
+            }
+            if (outputFilename == null) {
+                continue;
+            }
+            File outputFile = new File(outputFilename).getCanonicalFile();
+            String other = (String) outputs.put(outputFile, inputFilename);
+            if (other != null) {
+                System.err.println("\n[ERROR] " + other + " and " + inputFilename +
+                        " would both be written to " + outputFilename);
+                return 1;
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        ArrayList futures = new ArrayList();
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                final String inputFilename = (String) files.get(i);
+                futures.add(executor.submit(new Callable() {
+                    public Object call() {
+                        StringWriter messages = new StringWriter();
+                        StringWriter out = new StringWriter();
+                        PrintWriter writer = new PrintWriter(messages);
+                        Result result = compressFile(inputFilename, true, writer, out);
+                        writer.flush();
+                        result.messages = messages;
+                        result.out = out;
+                        return result;
+                    }
+                }));
+            }
+
+            ArrayList failures = new ArrayList();
+            int status = 0;
+
+            for (int i = 0; i < futures.size(); i++) {
+                Result result;
+                try {
+                    result = (Result) ((Future) futures.get(i)).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return 1;
+                } catch (ExecutionException e) {
+                    // compressFile only fails on errors, e.g. OutOfMemoryError,
+                    // which do not prevent the other files from being written.
+                    result = new Result((String) files.get(i));
+                    result.messages = new StringWriter();
+                    result.messages.write("[ERROR] in " + result.inputFilename + "\n  " + e.getCause() + "\n");
+                    result.status = 1;
+                }
+
+                System.err.print(result.messages.toString());
+
+                if (result.status == 0) {
+                    if (result.outputFilename == null) {
+                        stdout.write(result.out.toString());
+                        stdout.flush();
+                    }
+                    writeMungemap(result, mungemap);
+                } else {
+                    failures.add(result.inputFilename);
+                    if (status == 0) {
+                        status = result.status;
+                    }
+                }
+            }
+
+            if (failures.size() > 0) {
+                System.err.println("\n[ERROR] " + failures.size() + " of " + files.size() +
+                        " files could not be compressed:");
+                for (int i = 0; i < failures.size(); i++) {
+                    System.err.println("  " + failures.get(i));
+                }
+            }
+
+            return status;
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void writeMungemap(Result result, Writer mungemap) throws IOException {
+        if (mungemap != null && result.mungemap != null) {
+            if (result.outputFilename != null) {
+                mungemap.write("\n\nFile: " + result.outputFilename + "\n\n");
+            }
+            mungemap.write(result.mungemap.toString());
+        }
+    }
+
+    /*
+     * Compresses a single file, printing the warnings and errors to
+     * messages, and writing the output to stdout if no output file was
+     * specified. When concurrent is true, the other files are being
+     * compressed at the same time, and stdout is only a buffer.
+     */
+    private Result compressFile(String inputFilename, boolean concurrent,
+            PrintWriter messages, Writer stdout) {
+
+        Result result = new Result(inputFilename);
+        boolean stdin = inputFilename.equals("-");
+
+        Reader in = null;
+        Writer out = null;
+
+        try {
+
+            String type = null;
+            if (typeOverride != null) {
+                type = typeOverride;
+            } else if (!stdin) {
+                int idx = inputFilename.lastIndexOf('.');
+                if (idx >= 0 && idx < inputFilename.length() - 1) {
+                    type = inputFilename.substring(idx + 1);
+                }
+            }
+
+            if (type == null || !type.equalsIgnoreCase("js") && !type.equalsIgnoreCase("css")) {
+                messages.println("[ERROR] in " + inputFilename);
+                messages.println("  The type of this file is neither 'js' nor 'css'");
+                result.status = 1;
+                return result;
+            }
+
+            String outputFilename = getOutputFilename(inputFilename);
+            result.outputFilename = outputFilename;
+
+            // A stylesheet with a @charset rule past its start must be
+            // compressed as a whole for the rule to be moved to the top.
+            boolean stream = cssStream && type.equalsIgnoreCase("css") &&
+                    (stdin || canStream(inputFilename, charset));
+
+            InputStream input = stdin ? System.in : new FileInputStream(inputFilename);
+
+            // A stylesheet can be read as it is compressed, unless the whole
+            // of it is needed for the cache, or it is overwritten (or kept in
+            // memory anyway to be written to stdout.)
+            boolean streaming = stream && cache == null && !isSameFile(inputFilename, outputFilename) &&
+                    (outputFilename != null || !concurrent);
+
+            String cacheKey = null;
+            if (streaming) {
+                in = new InputStreamReader(input, charset);
+            } else {
+                // Read and decode the whole input at once.
+                byte[] bytes;
+                try {
+                    bytes = InputReader.readBytes(input, stdin ? -1 : new File(inputFilename).length());
+                } finally {
+                    input.close();
+                }
+
+                if (cache != null) {
+                    cacheKey = cache.getKey(bytes, type, charset, linebreakpos, munge,
+                            preserveAllSemiColons, disableOptimizations, preserveUnknownHints,
+                            cssTokenizer, cssStream);
+                    CompressorCache.Entry cached = cache.get(cacheKey);
+                    if (cached != null) {
+                        out = openOutput(outputFilename, stdout);
+                        out.write(cached.output);
+                        if (type.equalsIgnoreCase("js")) {
+                            result.mungemap = new StringWriter();
+                            result.mungemap.write(cached.mungemap);
+                        }
+                        return result;
+                    }
+                }
+
+                in = new StringReader(new String(bytes, charset));
+            }
+
+            if (type.equalsIgnoreCase("js")) {
+
+                try {
+
+                    JavaScriptCompressor compressor = new JavaScriptCompressor(in, new MessageReporter(messages, inputFilename));
+
+                    if (concurrent) {
+                        // The files are already being compressed concurrently.
+                        compressor.setMungeParallelism(1);
+                    }
+
+                    // Close the input stream first, and then open the output stream,
+                    // in case the output file should override the input file.
+                    in.close(); in = null;
+
+                    out = openOutput(outputFilename, stdout);
+                    result.mungemap = new StringWriter();
+                    if (cache == null) {
+                        compressor.compress(out, result.mungemap, linebreakpos, munge, verbose,
+                                preserveAllSemiColons, disableOptimizations, preserveUnknownHints);
+                    } else {
+                        StringWriter compressed = new StringWriter();
+                        compressor.compress(compressed, result.mungemap, linebreakpos, munge, verbose,
+                                preserveAllSemiColons, disableOptimizations, preserveUnknownHints);
+                        out.write(compressed.toString());
+                        cache.put(cacheKey, compressed.toString(), result.mungemap.toString());
+                    }
+
+                } catch (EvaluatorException e) {
+
+                    e.printStackTrace(messages);
+                    // Return a special error code used specifically by the web front-end.
+                    result.status = 2;
+
+                }
+
+            } else if (stream) {
+
+                CssCompressor compressor = new CssCompressor();
+                compressor.setUseTokenizer(cssTokenizer);
+
+                if (concurrent) {
+                    // The files are already being compressed concurrently.
+                    compressor.setParallelism(1);
+                }
+
+                out = openOutput(outputFilename, stdout);
+                if (cache == null) {
+                    compressor.compressStream(in, out, linebreakpos);
+                } else {
+                    StringWriter compressed = new StringWriter();
+                    compressor.compressStream(in, compressed, linebreakpos);
+                    out.write(compressed.toString());
+                    cache.put(cacheKey, compressed.toString(), "");
+                }
+
+            } else {
+
+                CssCompressor compressor = new CssCompressor(in);
+                compressor.setUseTokenizer(cssTokenizer);
+
+                if (concurrent) {
+                    // The files are already being compressed concurrently.
+                    compressor.setParallelism(1);
+                }
+
+                // Close the input stream first, and then open the output stream,
+                // in case the output file should override the input file.
+                in.close(); in = null;
+
+                out = openOutput(outputFilename, stdout);
+                if (cache == null) {
+                    compressor.compress(out, linebreakpos);
+                } else {
+                    StringWriter compressed = new StringWriter();
+                    compressor.compress(compressed, linebreakpos);
+                    out.write(compressed.toString());
+                    cache.put(cacheKey, compressed.toString(), "");
+                }
+            }
+
+        } catch (IOException e) {
+
+            e.printStackTrace(messages);
+            result.status = 1;
+
+        } catch (RuntimeException e) {
+
+            // Don't let an unexpected failure stop the other files from
+            // being compressed.
+            e.printStackTrace(messages);
+            result.status = 1;
+
+        } catch (StackOverflowError e) {
+
+            // e.g. a regular expression recursing too deeply on a very long
+            // stylesheet. Only this file fails.
+            messages.println("[ERROR] in " + inputFilename);
+            messages.println("  Stack overflow while compressing this file");
+            result.status = 1;
+
+        } finally {
+
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace(messages);
+                }
+            }
+
+            if (out != null) {
+                try {
+                    // stdout is shared by all the files.
+                    if (out == stdout) {
+                        out.flush();
+                    } else {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace(messages);
+                    result.status = 1;
+                }
+            }
+
+            messages.flush();
+        }
+
+        return result;
+    }
+
+    /*
+     * Returns the name of the file the input file is compressed to, or null
+     * if it is written to stdout.
+     */
+    private String getOutputFilename(String inputFilename) {
+        // if a substitution pattern was passed in
+        if (pattern.length > 1) {
+            return inputFilename.replaceFirst(pattern[0], pattern[1]);
+        }
+        return output;
+    }
+
+    private Writer openOutput(String outputFilename, Writer stdout) throws IOException {
+        if (outputFilename == null) {
+            return stdout;
+        }
+        return new OutputStreamWriter(new FileOutputStream(outputFilename), charset);
+    }
+
+    /*
+     * Returns true if the output file is the input file, or might be.
+     */
+    private static boolean isSameFile(String inputFilename, String outputFilename) {
+        if (outputFilename == null || inputFilename.equals("-")) {
+            return false;
+        }
+        try {
+            return new File(inputFilename).getCanonicalFile().equals(
+                    new File(outputFilename).getCanonicalFile());
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /*
+     * Returns true if the stylesheet can be compressed one rule at a time
+     * (see CssCompressor.canStream.)
+     */
+    private static boolean canStream(String inputFilename, String charset) throws IOException {
+        Reader in = new InputStreamReader(new FileInputStream(inputFilename), charset);
+        try {
+            return CssCompressor.canStream(in);
+        } finally {
+            in.close();
+        }
+    }
+}
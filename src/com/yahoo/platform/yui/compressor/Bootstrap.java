@@ -9,15 +9,36 @@
 
 package com.yahoo.platform.yui.compressor;
 
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
 
 public class Bootstrap {
 
     public static void main(String args[]) throws Exception {
-        ClassLoader loader = new JarClassLoader();
+        final JarClassLoader loader = new JarClassLoader();
         Thread.currentThread().setContextClassLoader(loader);
         Class c = loader.loadClass(YUICompressor.class.getName());
         Method main = c.getMethod("main", new Class[]{String[].class});
+
+        if (System.getProperty("yuicompressor.startupStats") != null) {
+            // Report how long it took to get here, and how much time was spent
+            // loading classes from the jar, including the ones loaded later on.
+            final long startTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+            final long mainTime = System.currentTimeMillis();
+            final int mainClassCount = loader.getLoadedClassCount();
+            final long mainLoadingTime = loader.getLoadingTime();
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                public void run() {
+                    long endTime = System.currentTimeMillis();
+                    System.err.println("\n[INFO] Startup: " + (mainTime - startTime) + "ms until main, " +
+                            mainClassCount + " classes loaded from the jar in " + mainLoadingTime + "ms");
+                    System.err.println("[INFO] Total: " + (endTime - startTime) + "ms, " +
+                            loader.getLoadedClassCount() + " classes loaded from the jar in " +
+                            loader.getLoadingTime() + "ms");
+                }
+            });
+        }
+
         main.invoke(null, new Object[]{args});
     }
 }
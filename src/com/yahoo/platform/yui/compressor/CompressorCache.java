@@ -0,0 +1,248 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Author: Julien Lecomte -  http://www.julienlecomte.net/
+ * Copyright (c) 2011 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * CompressorCache stores the result of previous compressions in a directory
+ * (see the --cache-dir option.) Entries are keyed by a hash of the input
+ * bytes and of everything else which affects the output: the type of the
+ * file, the charset, the options and the version of the compressor. Each
+ * entry holds the output and the munge mapping of a file.
+ *
+ * Entries are written to a temporary file which is then renamed, so that
+ * several processes can share the same directory. The least recently used
+ * entries are deleted when the directory grows larger than the maximum size.
+ */
+class CompressorCache {
+
+    private static final String CHARSET = "UTF-8";
+
+    // The temporary files left for longer than this by put() (e.g. by a
+    // process which was killed) are deleted by trim().
+    private static final long STALE_TMP_AGE = 60 * 60 * 1000;
+
+    private File dir;
+    private long maxSize;
+
+    static class Entry {
+
+        String output;
+        String mungemap;
+
+        Entry(String output, String mungemap) {
+            this.output = output;
+            this.mungemap = mungemap;
+        }
+    }
+
+    CompressorCache(File dir, long maxSize) throws IOException {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        dir.mkdirs();
+        if (!dir.isDirectory()) {
+            throw new IOException("Cannot create the cache directory " + dir);
+        }
+    }
+
+    String getKey(byte[] input, String type, String charset, int linebreakpos,
+            boolean munge, boolean preserveAllSemiColons, boolean disableOptimizations,
+            boolean preserveUnknownHints, boolean cssTokenizer, boolean cssStream) {
+
+        String options = "@VERSION@" +
+                ";type=" + type.toLowerCase() +
+                ";charset=" + charset +
+                ";line-break=" + linebreakpos +
+                ";munge=" + munge +
+                ";preserve-semi=" + preserveAllSemiColons +
+                ";disable-optimizations=" + disableOptimizations +
+                ";preservehints=" + preserveUnknownHints +
+                ";css-tokenizer=" + cssTokenizer +
+                ";css-stream=" + cssStream + "\n";
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+            digest.update(options.getBytes(CHARSET));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.toString());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.toString());
+        }
+        digest.update(input);
+
+        byte[] hash = digest.digest();
+        StringBuffer key = new StringBuffer();
+        for (int i = 0; i < hash.length; i++) {
+            String hex = Integer.toHexString(hash[i] & 0xff);
+            if (hex.length() == 1) {
+                key.append('0');
+            }
+            key.append(hex);
+        }
+        return key.toString();
+    }
+
+    /*
+     * Returns the entry corresponding to the specified key, or null if there
+     * is none (or if it cannot be read, e.g. because it was just evicted.)
+     */
+    Entry get(String key) {
+
+        File file = new File(dir, key);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        String content;
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                content = new String(InputReader.readBytes(in, file.length()), CHARSET);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        // The content of the file is the length of the output, followed by
+        // a line feed, the output and the munge mapping.
+        int idx = content.indexOf('\n');
+        if (idx < 0) {
+            return null;
+        }
+        int length;
+        try {
+            length = Integer.parseInt(content.substring(0, idx), 10);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (length < 0 || idx + 1 + length > content.length()) {
+            return null;
+        }
+
+        // Mark this entry as recently used.
+        file.setLastModified(System.currentTimeMillis());
+
+        return new Entry(content.substring(idx + 1, idx + 1 + length),
+                content.substring(idx + 1 + length));
+    }
+
+    /*
+     * Stores an entry. Failures are ignored, since the cache is only an
+     * optimization.
+     */
+    void put(String key, String output, String mungemap) {
+
+        File tmp = null;
+        try {
+            tmp = File.createTempFile(key, ".tmp", dir);
+            Writer out = new OutputStreamWriter(new FileOutputStream(tmp), CHARSET);
+            try {
+                out.write(output.length() + "\n");
+                out.write(output);
+                out.write(mungemap);
+            } finally {
+                out.close();
+            }
+
+            File file = new File(dir, key);
+            if (!tmp.renameTo(file)) {
+                // Some platforms cannot rename over an existing file. Another
+                // process may have stored the same entry in the meantime.
+                if (!file.exists() || !file.delete() || !tmp.renameTo(file)) {
+                    tmp.delete();
+                }
+            }
+        } catch (IOException e) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /*
+     * Deletes the least recently used entries until the size of the cache
+     * directory is no larger than the maximum size. Only the entries are
+     * considered, and the temporary files written by put() once they are
+     * stale: the other files found in the directory are not ours, and the
+     * recent temporary files may be in use by another process.
+     */
+    void trim() {
+
+        final long now = System.currentTimeMillis();
+        File[] files = dir.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                String name = file.getName();
+                if (name.endsWith(".tmp") && name.length() > 64 && isKey(name.substring(0, 64))) {
+                    if (now - file.lastModified() > STALE_TMP_AGE) {
+                        file.delete();
+                    }
+                    return false;
+                }
+                return isKey(name) && file.isFile();
+            }
+        });
+        if (files == null) {
+            return;
+        }
+
+        long size = 0;
+        final long[] lastModified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            size += files[i].length();
+            lastModified[i] = files[i].lastModified();
+            order[i] = new Integer(i);
+        }
+
+        if (size <= maxSize) {
+            return;
+        }
+
+        Arrays.sort(order, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                long t1 = lastModified[((Integer) o1).intValue()];
+                long t2 = lastModified[((Integer) o2).intValue()];
+                return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+
+        for (int i = 0; i < order.length && size > maxSize; i++) {
+            File file = files[order[i].intValue()];
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    /*
+     * Returns true if name is a key, as returned by getKey (a SHA-256 hash
+     * in lower case hex.)
+     */
+    private static boolean isKey(String name) {
+        if (name.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
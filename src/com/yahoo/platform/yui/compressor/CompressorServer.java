@@ -0,0 +1,315 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Author: Julien Lecomte -  http://www.julienlecomte.net/
+ * Copyright (c) 2011 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+import org.mozilla.javascript.EvaluatorException;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * CompressorServer implements the --server and --batch modes, in which a
+ * single JVM compresses any number of files sent over local TCP connections
+ * or over stdin, instead of paying for the JVM startup and the JIT warm-up
+ * for each file.
+ *
+ * A connection (or stdin) may carry several requests, one after the other,
+ * and the responses are sent back in the same order. A request
+ * is made of a header line, a line containing the length in bytes of the
+ * payload, and the payload itself, encoded in UTF-8:
+ *
+ *     type=js line-break=8000 nomunge preserve-semi\n
+ *     1234\n
+ *     ...
+ *
+ * The header contains the type of the payload (js or css), optionally
+ * followed by some of the command line options: line-break, nomunge,
+ * preserve-semi, disable-optimizations, preservehints, css-tokenizer,
+ * css-stream and verbose.
+ * The header and length lines are limited to MAX_LINE bytes, and the
+ * payload to MAX_PAYLOAD bytes. Up to MAX_CONNECTIONS
+ * connections are served at the same time, the other ones wait for their
+ * turn.
+ * The response is made of a line containing the exit code the command
+ * line would have returned (0, 1 or 2), the length in bytes of the output
+ * and the length in bytes of the messages, followed by the output and the
+ * messages (warnings and errors), both encoded in UTF-8:
+ *
+ *     0 456 0\n
+ *     ...
+ */
+class CompressorServer {
+
+    private static final String CHARSET = "UTF-8";
+
+    // Larger payloads are rejected before being read.
+    static final int MAX_PAYLOAD = 64 * 1024 * 1024;
+    // Longer lines end the connection, as the request can't be skipped.
+    static final int MAX_LINE = 4096;
+    static final int MAX_CONNECTIONS = 16;
+
+    private boolean verbose;
+
+    // Shared by all the requests, see CssCompressor.compress(CharSequence, Writer, int)
+    private CssCompressor cssCompressor = new CssCompressor();
+    private CssCompressor cssTokenCompressor = new CssCompressor();
+
+    CompressorServer(boolean verbose) {
+        this.verbose = verbose;
+        cssTokenCompressor.setUseTokenizer(true);
+        // Requests are already being served concurrently.
+        cssCompressor.setParallelism(1);
+    }
+
+    /*
+     * Listens on the loopback interface until the process is killed. The
+     * port actually used (useful when port is 0) is printed on stdout once
+     * the server is ready.
+     */
+    void listen(int port) throws IOException {
+
+        ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+        System.out.println(serverSocket.getLocalPort());
+        System.out.flush();
+
+        if (verbose) {
+            System.err.println("\n[INFO] Listening on 127.0.0.1:" + serverSocket.getLocalPort());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(MAX_CONNECTIONS);
+        try {
+            while (true) {
+                final Socket socket = serverSocket.accept();
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            serve(socket.getInputStream(), socket.getOutputStream());
+                        } catch (IOException e) {
+                            if (verbose) {
+                                e.printStackTrace();
+                            }
+                        } finally {
+                            try {
+                                socket.close();
+                            } catch (IOException e) {
+                                // Nothing to do...
+                            }
+                        }
+                    }
+                });
+            }
+        } finally {
+            executor.shutdownNow();
+            serverSocket.close();
+        }
+    }
+
+    /*
+     * Serves the requests read from is until the end of the stream is
+     * reached, sending the responses to os.
+     */
+    void serve(InputStream is, OutputStream os) throws IOException {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+        OutputStream out = new BufferedOutputStream(os);
+
+        String header;
+        while ((header = readLine(in)) != null) {
+
+            String lengthstr = readLine(in);
+            if (lengthstr == null) {
+                throw new EOFException();
+            }
+
+            int length;
+            try {
+                length = Integer.parseInt(lengthstr.trim(), 10);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid payload length: " + lengthstr);
+            }
+            if (length < 0) {
+                throw new IOException("Invalid payload length: " + lengthstr);
+            }
+
+            StringWriter output = new StringWriter();
+            StringWriter messages = new StringWriter();
+            int status;
+            if (length > MAX_PAYLOAD) {
+                // Skip the payload, so that the next request can be read.
+                byte[] buffer = new byte[8192];
+                while (length > 0) {
+                    int n = in.read(buffer, 0, Math.min(length, buffer.length));
+                    if (n < 0) {
+                        throw new EOFException();
+                    }
+                    length -= n;
+                }
+                messages.write("[ERROR] The payload is larger than " + MAX_PAYLOAD + " bytes\n");
+                status = 1;
+            } else {
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                status = compress(header, new String(payload, CHARSET), output,
+                        new PrintWriter(messages, true));
+            }
+
+            byte[] outputBytes = status == 0 ? output.toString().getBytes(CHARSET) : new byte[0];
+            byte[] messagesBytes = messages.toString().getBytes(CHARSET);
+            out.write((status + " " + outputBytes.length + " " + messagesBytes.length + "\n").getBytes(CHARSET));
+            out.write(outputBytes);
+            out.write(messagesBytes);
+            out.flush();
+        }
+    }
+
+    /*
+     * Compresses the payload according to the options found in the header,
+     * and returns the corresponding exit code.
+     */
+    private int compress(String header, String payload, Writer out, final PrintWriter messages) {
+
+        String type = null;
+        int linebreakpos = -1;
+        boolean munge = true;
+        boolean verbose = false;
+        boolean preserveAllSemiColons = false;
+        boolean disableOptimizations = false;
+        boolean preserveUnknownHints = false;
+        boolean cssTokenizer = false;
+        boolean cssStream = false;
+
+        StringTokenizer st = new StringTokenizer(header);
+        while (st.hasMoreTokens()) {
+            String option = st.nextToken();
+            String value = null;
+            int idx = option.indexOf('=');
+            if (idx >= 0) {
+                value = option.substring(idx + 1);
+                option = option.substring(0, idx);
+            }
+            if (option.equals("type")) {
+                type = value;
+            } else if (option.equals("line-break") && value != null) {
+                try {
+                    linebreakpos = Integer.parseInt(value, 10);
+                } catch (NumberFormatException e) {
+                    messages.println("[ERROR] Invalid line-break option: " + value);
+                    return 1;
+                }
+            } else if (option.equals("nomunge")) {
+                munge = false;
+            } else if (option.equals("verbose")) {
+                verbose = true;
+            } else if (option.equals("preserve-semi")) {
+                preserveAllSemiColons = true;
+            } else if (option.equals("disable-optimizations")) {
+                disableOptimizations = true;
+            } else if (option.equals("preservehints")) {
+                preserveUnknownHints = true;
+            } else if (option.equals("css-tokenizer")) {
+                cssTokenizer = true;
+            } else if (option.equals("css-stream")) {
+                cssStream = true;
+            } else {
+                messages.println("[ERROR] Unknown option: " + option);
+                return 1;
+            }
+        }
+
+        if (type == null || !type.equalsIgnoreCase("js") && !type.equalsIgnoreCase("css")) {
+            messages.println("[ERROR] The type must be either 'js' or 'css'");
+            return 1;
+        }
+
+        try {
+
+            if (type.equalsIgnoreCase("js")) {
+
+                try {
+
+                    JavaScriptCompressor compressor = new JavaScriptCompressor(new StringReader(payload), new MessageReporter(messages, null));
+
+                    // Requests are already being served concurrently.
+                    compressor.setMungeParallelism(1);
+
+                    compressor.compress(out, null, linebreakpos, munge, verbose,
+                            preserveAllSemiColons, disableOptimizations, preserveUnknownHints);
+
+                } catch (EvaluatorException e) {
+
+                    // The errors have already been reported. Same error code
+                    // as the command line.
+                    return 2;
+
+                }
+
+            } else {
+
+                CssCompressor compressor = cssTokenizer ? cssTokenCompressor : cssCompressor;
+                if (cssStream && CssCompressor.canStream(new StringReader(payload))) {
+                    compressor.compressStream(new StringReader(payload), out, linebreakpos);
+                } else {
+                    compressor.compress(payload, out, linebreakpos);
+                }
+            }
+
+        } catch (IOException e) {
+
+            e.printStackTrace(messages);
+            return 1;
+
+        } catch (RuntimeException e) {
+
+            // A bad request must not take the server down.
+            e.printStackTrace(messages);
+            return 1;
+
+        } catch (StackOverflowError e) {
+
+            // Nor a pathological one (e.g. a regular expression recursing
+            // too deeply on a very long stylesheet.)
+            messages.println("[ERROR] Stack overflow while compressing the payload");
+            return 1;
+        }
+
+        return 0;
+    }
+
+    /*
+     * Reads a line terminated by '\n' (an optional '\r' is dropped.)
+     * Returns null if the end of the stream was reached before any byte.
+     * Throws an IOException if the line is longer than MAX_LINE bytes.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c == -1) {
+                if (line.size() == 0) {
+                    return null;
+                }
+                break;
+            }
+            if (line.size() == MAX_LINE) {
+                throw new IOException("Line longer than " + MAX_LINE + " bytes");
+            }
+            line.write(c);
+        }
+        String result = line.toString(CHARSET);
+        if (result.endsWith("\r")) {
+            result = result.substring(0, result.length() - 1);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Author: Julien Lecomte -  http://www.julienlecomte.net/
+ * Copyright (c) 2013 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+import java.util.HashMap;
+
+/**
+ * CssColors holds the color conversions shared by CssCompressor and
+ * CssTokenCompressor: the color keywords which are shorter than their hex
+ * value, and the opaque rgba(), hsl() and hsla() colors which can be
+ * written in hex.
+ */
+class CssColors {
+
+    // The color keywords shorter than the shortest hex notation of their
+    // value (e.g. not white, as #fff is shorter), by value.
+    static final String[][] KEYWORDS = {
+        { "#f00", "red" },
+        { "#000080", "navy" },
+        { "#808080", "gray" },
+        { "#808000", "olive" },
+        { "#800080", "purple" },
+        { "#c0c0c0", "silver" },
+        { "#008080", "teal" },
+        { "#ffa500", "orange" },
+        { "#800000", "maroon" },
+        { "#f0ffff", "azure" },
+        { "#f5f5dc", "beige" },
+        { "#ffe4c4", "bisque" },
+        { "#a52a2a", "brown" },
+        { "#ff7f50", "coral" },
+        { "#ffd700", "gold" },
+        { "#008000", "green" },
+        { "#4b0082", "indigo" },
+        { "#fffff0", "ivory" },
+        { "#f0e68c", "khaki" },
+        { "#faf0e6", "linen" },
+        { "#da70d6", "orchid" },
+        { "#cd853f", "peru" },
+        { "#ffc0cb", "pink" },
+        { "#dda0dd", "plum" },
+        { "#fa8072", "salmon" },
+        { "#a0522d", "sienna" },
+        { "#fffafa", "snow" },
+        { "#d2b48c", "tan" },
+        { "#ff6347", "tomato" },
+        { "#ee82ee", "violet" },
+        { "#f5deb3", "wheat" }
+    };
+
+    private static final HashMap KEYWORD_MAP = new HashMap();
+
+    static {
+        for (int i = 0; i < KEYWORDS.length; i++) {
+            KEYWORD_MAP.put(KEYWORDS[i][0], KEYWORDS[i][1]);
+        }
+    }
+
+    /*
+     * Returns the keyword of the lower case hex color (e.g. #f00), or null
+     * if there is no shorter keyword.
+     */
+    static String getKeyword(String hex) {
+        return (String) KEYWORD_MAP.get(hex);
+    }
+
+    /*
+     * Returns the shortest replacement of the function (rgba, hsl or hsla)
+     * called with args (the text between the parentheses, without spaces),
+     * or null if it should be kept as it is. Opaque colors are written as
+     * #rrggbb, which may be shortened further, except for the hsla() colors
+     * whose value is not a whole number in rgb, which only lose their alpha.
+     */
+    static String shorten(String function, String args) {
+
+        String[] values = args.split(",", -1);
+        boolean alpha = function.endsWith("a");
+        if (values.length != (alpha ? 4 : 3) || alpha && !isOpaque(values[3])) {
+            return null;
+        }
+
+        int[] rgb = new int[3];
+        if (function.startsWith("rgb")) {
+            for (int i = 0; i < 3; i++) {
+                rgb[i] = parseInteger(values[i], 0);
+                if (rgb[i] < 0) {
+                    return null;
+                }
+                // Same as rgb(): too big values are rounded down.
+                if (rgb[i] > 255) {
+                    rgb[i] = 255;
+                }
+            }
+        } else if (!hslToRgb(values, rgb)) {
+            return alpha && hslToRgb(values, null) ? "hsl(" + values[0] + ',' + values[1] + ',' + values[2] + ')' : null;
+        }
+
+        StringBuffer hex = new StringBuffer("#");
+        for (int i = 0; i < 3; i++) {
+            if (rgb[i] < 16) {
+                hex.append('0');
+            }
+            hex.append(Integer.toHexString(rgb[i]));
+        }
+        return hex.toString();
+    }
+
+    /*
+     * Returns true if the alpha value is 1 (or 1.0, 100%...)
+     */
+    private static boolean isOpaque(String alpha) {
+        if (alpha.equals("100%")) {
+            return true;
+        }
+        if (!alpha.startsWith("1")) {
+            return false;
+        }
+        if (alpha.length() == 1) {
+            return true;
+        }
+        if (alpha.charAt(1) != '.' || alpha.length() == 2) {
+            return false;
+        }
+        for (int i = 2; i < alpha.length(); i++) {
+            if (alpha.charAt(i) != '0') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Parses the non negative integer found in s, followed by suffix
+     * characters, and returns it, or -1 (also if it is over 9999.)
+     */
+    private static int parseInteger(String s, int suffix) {
+        int length = s.length() - suffix;
+        if (length <= 0) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + c - '0';
+            if (value > 9999) {
+                return -1;
+            }
+        }
+        return value;
+    }
+
+    /*
+     * Converts the hue (in degrees), saturation and lightness (percentages,
+     * 0 being allowed without %) to rgb, as CSS does. Returns false if the
+     * values are not valid, or if rgb is not null and the result is not
+     * made of whole numbers (which would have to be rounded.)
+     */
+    private static boolean hslToRgb(String[] values, int[] rgb) {
+
+        String h = values[0];
+        boolean negative = h.startsWith("-");
+        int hue = parseInteger(negative ? h.substring(1) : h, h.endsWith("deg") ? 3 : 0);
+        int saturation = parsePercentage(values[1]);
+        int lightness = parsePercentage(values[2]);
+        if (hue < 0 || saturation < 0 || lightness < 0) {
+            return false;
+        }
+        hue = (negative ? 360 - hue % 360 : hue) % 360;
+
+        if (rgb == null) {
+            return true;
+        }
+
+        // t1 and t2 are in 1/10000, the hue in degrees, so the channels
+        // are computed in 1/600000.
+        int t2 = lightness <= 50 ? lightness * (saturation + 100) :
+                (lightness + saturation) * 100 - lightness * saturation;
+        int t1 = lightness * 200 - t2;
+        int[] hues = { hue + 120, hue, hue - 120 };
+        for (int i = 0; i < 3; i++) {
+            int value = hueToRgb(t1, t2, (hues[i] + 360) % 360) * 255;
+            if (value % 600000 != 0) {
+                return false;
+            }
+            rgb[i] = value / 600000;
+        }
+        return true;
+    }
+
+    private static int parsePercentage(String s) {
+        if (s.equals("0")) {
+            return 0;
+        }
+        int value = s.endsWith("%") ? parseInteger(s, 1) : -1;
+        return value > 100 ? -1 : value;
+    }
+
+    private static int hueToRgb(int t1, int t2, int hue) {
+        if (hue < 60) {
+            return (t2 - t1) * hue + t1 * 60;
+        }
+        if (hue < 180) {
+            return t2 * 60;
+        }
+        if (hue < 240) {
+            return (t2 - t1) * (240 - hue) + t1 * 60;
+        }
+        return t1 * 60;
+    }
+}
@@ -13,21 +13,145 @@ package com.yahoo.platform.yui.compressor;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class CssCompressor {
 
+    private static final String TOKEN_PLACEHOLDER = "___YUICSSMIN_PRESERVED_TOKEN_";
+    private static final String COMMENT_PLACEHOLDER = "___YUICSSMIN_PRESERVE_CANDIDATE_COMMENT_";
+    private static final String DATA_URL_PLACEHOLDER = "___YUICSSMIN_PRESERVED_DATA_URL_";
+
+    // The regular expressions are compiled once, and shared by all the
+    // instances (a Pattern is immutable, a Matcher is not.)
+    private static final Pattern DATA_URL_PATTERN = Pattern.compile("(?i)url\\(\\s*([\"']?)data\\:");
+    private static final Pattern CALC_PATTERN = Pattern.compile("(?i)calc\\(\\s*([\"']?)");
+    private static final Pattern MATRIX_PATTERN = Pattern.compile("(?i)progid:DXImageTransform.Microsoft.Matrix\\s*([\"']?)");
+    private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s+");
+    private static final Pattern STRING_PATTERN = Pattern.compile("(\"([^\\\\\"]|\\\\.|\\\\)*\")|(\'([^\\\\\']|\\\\.|\\\\)*\')");
+    private static final Pattern ALPHA_OPACITY_PATTERN = Pattern.compile("(?i)progid:DXImageTransform.Microsoft.Alpha\\(Opacity=");
+    private static final Pattern PSEUDO_CLASS_COLON_PATTERN = Pattern.compile("___YUICSSMIN_PSEUDOCLASSCOLON___");
+    private static final Pattern SPACE_BEFORE_PATTERN = Pattern.compile("\\s+([!{};:>+\\(\\)\\],])");
+    private static final Pattern IMPORTANT_PATTERN = Pattern.compile("!important");
+    private static final Pattern FIRST_LINE_PATTERN = Pattern.compile("(?i):first\\-(line|letter)(\\{|,)");
+    private static final Pattern COMMENT_END_SPACE_PATTERN = Pattern.compile("\\*/ ");
+    private static final Pattern CHARSET_PATTERN = Pattern.compile("(?i)^(.*)(@charset)( \"[^\"]*\";)");
+    private static final Pattern LEADING_CHARSETS_PATTERN = Pattern.compile("(?i)^((\\s*)(@charset)( [^;]+;\\s*))+");
+    private static final Pattern DIRECTIVE_PATTERN = Pattern.compile("(?i)@(font-face|import|(?:-(?:atsc|khtml|moz|ms|o|wap|webkit)-)?keyframe|media|page|namespace)");
+    private static final Pattern PSEUDO_ELEMENT_PATTERN = Pattern.compile("(?i):(active|after|before|checked|disabled|empty|enabled|first-(?:child|of-type)|focus|hover|last-(?:child|of-type)|link|only-(?:child|of-type)|root|:selection|target|visited)");
+    private static final Pattern PSEUDO_FUNCTION_PATTERN = Pattern.compile("(?i):(lang|not|nth-child|nth-last-child|nth-last-of-type|nth-of-type|(?:-(?:moz|webkit)-)?any)\\(");
+    private static final Pattern VALUE_FUNCTION_PATTERN = Pattern.compile("(?i)([:,\\( ]\\s*)(attr|color-stop|from|rgba|to|url|(?:-(?:atsc|khtml|moz|ms|o|wap|webkit)-)?(?:calc|max|min|(?:repeating-)?(?:linear|radial)-gradient)|-webkit-gradient)");
+    private static final Pattern AND_PATTERN = Pattern.compile("(?i)\\band\\(");
+    private static final Pattern SPACE_AFTER_PATTERN = Pattern.compile("([!{}:;>+\\(\\[,])\\s+");
+    private static final Pattern SEMICOLONS_BEFORE_BRACE_PATTERN = Pattern.compile(";+}");
+    // The units of the zeros replaced by 0, in the order they are tried
+    // (g?rad is grad then rad, and so on.)
+    private static final String[] ZERO_UNITS = {
+        "px", "em", "in", "cm", "mm", "pc", "pt", "ex", "deg", "grad", "rad", "khz", "hz"
+    };
+    private static final String[] ZERO_PERCENT_UNITS = {"%"};
+    private static final String[] ZERO_IN_GROUP_UNITS = {
+        "px", "em", "%", "in", "cm", "mm", "pc", "pt", "ex", "deg", "grad", "rad", "ms", "s", "khz", "hz"
+    };
+    private static final Pattern TRAILING_ZERO_PATTERN = Pattern.compile("([0-9])\\.0(px|em|%|in|cm|mm|pc|pt|ex|deg|m?s|g?rad|k?hz| |;)");
+    private static final Pattern FOUR_ZEROS_PATTERN = Pattern.compile(":0 0 0 0(;|})");
+    private static final Pattern THREE_ZEROS_PATTERN = Pattern.compile(":0 0 0(;|})");
+    private static final Pattern TWO_ZEROS_PATTERN = Pattern.compile("(?<!flex):0 0(;|})");
+    private static final Pattern POSITION_PATTERN = Pattern.compile("(?i)(background-position|webkit-mask-position|transform-origin|webkit-transform-origin|moz-transform-origin|o-transform-origin|ms-transform-origin):0(;|})");
+    private static final Pattern LEADING_ZERO_PATTERN = Pattern.compile("(:|\\s)0+\\.(\\d+)");
+    private static final Pattern NONE_PATTERN = Pattern.compile("(?i)(border|border-top|border-right|border-bottom|border-left|outline|background):none(;|})");
+    private static final Pattern QUERY_FRACTION_PATTERN = Pattern.compile("\\(([\\-A-Za-z]+):([0-9]+)\\/([0-9]+)\\)");
+    private static final Pattern QUERY_FRACTION_TOKEN_PATTERN = Pattern.compile("___YUI_QUERY_FRACTION___");
+    private static final Pattern SEMICOLONS_PATTERN = Pattern.compile(";;+");
+    private static final Pattern CALC_FUNCTION_PATTERN = Pattern.compile("calc\\([^\\)]*\\)");
+    private static final Pattern[] CALC_OPERATOR_PATTERNS = {
+        Pattern.compile("(?<=[-|%|px|em|rem|vw|\\d]+)\\+"),
+        Pattern.compile("(?<=[-|%|px|em|rem|vw|\\d]+)\\-"),
+        Pattern.compile("(?<=[-|%|px|em|rem|vw|\\d]+)\\*"),
+        Pattern.compile("(?<=[-|%|px|em|rem|vw|\\d]+)\\/")
+    };
+    private static final String[] CALC_OPERATORS = {" + ", " - ", " * ", " / "};
+
     private StringBuffer srcsb = new StringBuffer();
+    private boolean useTokenizer = false;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int parallelThreshold = 65536;
+
+    /*
+     * A preserved token whose white space was removed (i.e. a data URL),
+     * kept as a span of the text it was found in, so that large data URLs
+     * are neither copied (unless they contain white space) nor scanned by
+     * the rules. It is written as is to the output, once compressed.
+     */
+    private static class DataUrl {
+
+        final String text;
+        final int start;
+        final int end;
+
+        DataUrl(String text, int start, int end) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+
+        public String toString() {
+            return text.substring(start, end);
+        }
+    }
+
+    /**
+     * Creates a compressor meant to be reused, see compress(CharSequence,
+     * Writer, int).
+     */
+    public CssCompressor() {
+    }
 
     public CssCompressor(Reader in) throws IOException {
         // Read the stream...
-        int c;
-        while ((c = in.read()) != -1) {
-            srcsb.append((char) c);
-        }
+        srcsb.append(InputReader.readString(in));
+    }
+
+    /**
+     * Uses CssTokenCompressor, which tokenizes the stylesheet once instead
+     * of running each regular expression over the whole of it. The output
+     * is the same on well-formed stylesheets. It differs on:
+     * - unterminated comments, where the regular expressions leak their
+     *   placeholders;
+     * - @charset rules moved next to text that later rules then match;
+     * - calc() expressions or data URIs inside strings;
+     * - line breaks (--line-break), as the columns are counted on the final
+     *   text instead of the text holding the placeholders.
+     */
+    public void setUseTokenizer(boolean useTokenizer) {
+        this.useTokenizer = useTokenizer;
+    }
+
+    /**
+     * Sets the maximum number of threads used to compress the segments of
+     * a large stylesheet concurrently. Defaults to the number of available
+     * processors. A value of 1 disables concurrent compression. Not used by
+     * the tokenizer based engine.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the minimum number of characters of a segment compressed in its
+     * own thread. Stylesheets shorter than twice that are compressed by the
+     * calling thread. Defaults to 65536.
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
     }
 
     /**
@@ -40,14 +164,19 @@ public class CssCompressor {
      */
     protected String preserveToken(String css, String preservedToken,
             String tokenRegex, boolean removeWhiteSpace, ArrayList preservedTokens) {
+        return preserveToken(css, preservedToken, Pattern.compile(tokenRegex),
+                removeWhiteSpace, preservedTokens);
+    }
+
+    private static String preserveToken(String css, String preservedToken,
+            Pattern tokenPattern, boolean removeWhiteSpace, ArrayList preservedTokens) {
 
         int maxIndex = css.length() - 1;
         int appendIndex = 0;
 
         StringBuffer sb = new StringBuffer();
 
-        Pattern p = Pattern.compile(tokenRegex);
-        Matcher m = p.matcher(css);
+        Matcher m = tokenPattern.matcher(css);
 
         while (m.find()) {
             int startIndex = m.start() + (preservedToken.length() + 1);
@@ -79,13 +208,17 @@ public class CssCompressor {
             }
 
             // Enough searching, start moving stuff over to the buffer
-            sb.append(css.substring(appendIndex, m.start()));
+            sb.append(css, appendIndex, m.start());
 
             if (foundTerminator) {
-                String token = css.substring(startIndex, endIndex);
-                if(removeWhiteSpace)
-                    token = token.replaceAll("\\s+", "");
-                preservedTokens.add(token);
+                if (!removeWhiteSpace) {
+                    preservedTokens.add(css.substring(startIndex, endIndex));
+                } else if (hasSpace(css, startIndex, endIndex)) {
+                    String token = WHITESPACE_PATTERN.matcher(css.substring(startIndex, endIndex)).replaceAll("");
+                    preservedTokens.add(new DataUrl(token, 0, token.length()));
+                } else {
+                    preservedTokens.add(new DataUrl(css, startIndex, endIndex));
+                }
 
                 String preserver = preservedToken + "(___YUICSSMIN_PRESERVED_TOKEN_" + (preservedTokens.size() - 1) + "___)";
                 sb.append(preserver);
@@ -103,17 +236,779 @@ public class CssCompressor {
         return sb.toString();
     }
 
+    /*
+     * Replaces the placeholders (prefix, index and ___) found in css with
+     * the corresponding tokens, in a single scan. The tokens are not
+     * scanned again: a token only contains placeholders created before
+     * it, which were not restored either when the tokens were restored
+     * one after the other.
+     */
+    private static String restoreTokens(String css, String prefix, ArrayList tokens) {
+
+        int startIndex = css.indexOf(prefix);
+        if (startIndex < 0) {
+            return css;
+        }
+
+        StringBuffer sb = new StringBuffer(css.length());
+        int appendIndex = 0;
+        while (startIndex >= 0) {
+            int indexStart = startIndex + prefix.length();
+            int i = parseTokenIndex(css, indexStart, tokens.size());
+            if (i < 0) {
+                startIndex = css.indexOf(prefix, indexStart);
+                continue;
+            }
+            sb.append(css, appendIndex, startIndex);
+            if (tokens.get(i) instanceof DataUrl) {
+                // written as is by writeDataUrls, once the rules are done
+                sb.append(DATA_URL_PLACEHOLDER).append(i).append("___");
+            } else {
+                sb.append(tokens.get(i).toString());
+            }
+            appendIndex = indexStart + String.valueOf(i).length() + 3;
+            startIndex = css.indexOf(prefix, appendIndex);
+        }
+        sb.append(css, appendIndex, css.length());
+        return sb.toString();
+    }
+
+    /*
+     * Writes css to out, along with the data URLs whose placeholders were
+     * left by restoreTokens, straight from the text they were found in.
+     */
+    private static void writeDataUrls(String css, ArrayList tokens, Writer out) throws IOException {
+
+        int appendIndex = 0;
+        int startIndex = css.indexOf(DATA_URL_PLACEHOLDER);
+        while (startIndex >= 0) {
+            int indexStart = startIndex + DATA_URL_PLACEHOLDER.length();
+            int i = parseTokenIndex(css, indexStart, tokens.size());
+            if (i < 0 || !(tokens.get(i) instanceof DataUrl)) {
+                startIndex = css.indexOf(DATA_URL_PLACEHOLDER, indexStart);
+                continue;
+            }
+            DataUrl token = (DataUrl) tokens.get(i);
+            out.write(css, appendIndex, startIndex - appendIndex);
+            out.write(token.text, token.start, token.end - token.start);
+            appendIndex = indexStart + String.valueOf(i).length() + 3;
+            startIndex = css.indexOf(DATA_URL_PLACEHOLDER, appendIndex);
+        }
+        out.write(css, appendIndex, css.length() - appendIndex);
+    }
+
+    /*
+     * Returns the index written at position start of css and followed by
+     * ___, or -1 if there is none or if it is not lower than count.
+     */
+    private static int parseTokenIndex(String css, int start, int count) {
+        int end = start;
+        int index = 0;
+        while (end < css.length() && end - start < 9 && isDigit(css.charAt(end))) {
+            index = index * 10 + (css.charAt(end) - '0');
+            end++;
+        }
+        if (end == start || css.charAt(start) == '0' && end - start > 1 ||
+                !css.startsWith("___", end) || index >= count) {
+            return -1;
+        }
+        return index;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean hasSpace(String css, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (isSpace(css.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isHexDigit(char c) {
+        return c >= '0' && c <= '9' || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F';
+    }
+
+    /*
+     * Returns true if the 6 characters found at position start of css are
+     * hex digits.
+     */
+    private static boolean isHexColor(String css, int start) {
+        for (int i = start; i < start + 6; i++) {
+            if (!isHexDigit(css.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Same as \s in a regular expression
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static int skipSpaces(String css, int index) {
+        while (index < css.length() && isSpace(css.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    /*
+     * Returns true if c matches [0-9a-z-.] (ignoring case), i.e. may be
+     * part of a word preceding a zero.
+     */
+    private static boolean isWordChar(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '-' || c == '.';
+    }
+
+    /*
+     * Returns the length of the unit found at index, trying them in order,
+     * or 0 if there is none. Only ASCII letters are compared ignoring case.
+     */
+    private static int unitLength(String css, int index, String[] units) {
+        for (int u = 0; u < units.length; u++) {
+            String unit = units[u];
+            if (index + unit.length() > css.length()) {
+                continue;
+            }
+            int i = 0;
+            while (i < unit.length()) {
+                char c = css.charAt(index + i);
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+                if (c != unit.charAt(i)) {
+                    break;
+                }
+                i++;
+            }
+            if (i == unit.length()) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /*
+     * Replaces with 0 the zeros followed by one of the units (e.g. 0px,
+     * .0em or 0.0%) which start one of the words following each start
+     * character (or the stylesheet, if atStart is true) and an optional
+     * space. A word is made of [0-9a-z-.] and ends with one of the
+     * separators. If dropSpace is true, the space following the start
+     * character is removed along with the units.
+     *
+     * This is what replacing the matches of
+     * (start ?)((?:[0-9a-z-.]+[separators])*?)?(?:0?\.)?0(?:units) until
+     * nothing changed did, one zero at a time, rescanning the whole
+     * stylesheet each time. Replacing a zero never changes the words
+     * before it, so each word is only looked at once.
+     */
+    private static String replaceZeros(String css, char start, boolean atStart,
+            String separators, String[] units, boolean dropSpace) {
+
+        StringBuffer sb = null;
+        int appendIndex = 0;
+        boolean first = atStart;
+        int index = atStart ? 0 : css.indexOf(start);
+
+        while (index >= 0) {
+
+            int pos = index;
+            int space = -1;
+            if (!first) {
+                pos = index + 1;
+                if (pos < css.length() && css.charAt(pos) == ' ') {
+                    space = pos++;
+                }
+            }
+
+            while (pos < css.length()) {
+
+                // Replace the zero and units starting the word, as many
+                // times as the result still starts with a zero and a unit
+                // (e.g. 0px.0em or 0pxpx.)
+                int end = pos;
+                int length;
+                if (css.startsWith("0.0", end) && (length = unitLength(css, end + 3, units)) > 0) {
+                    end += 3 + length;
+                } else if (css.startsWith(".0", end) && (length = unitLength(css, end + 2, units)) > 0) {
+                    end += 2 + length;
+                } else if (css.charAt(end) == '0' && (length = unitLength(css, end + 1, units)) > 0) {
+                    end += 1 + length;
+                }
+                if (end > pos) {
+                    while (true) {
+                        if (css.startsWith(".0", end) && (length = unitLength(css, end + 2, units)) > 0) {
+                            end += 2 + length;
+                        } else if ((length = unitLength(css, end, units)) > 0) {
+                            end += length;
+                        } else {
+                            break;
+                        }
+                    }
+                    if (sb == null) {
+                        sb = new StringBuffer(css.length());
+                    }
+                    if (dropSpace && space >= appendIndex) {
+                        sb.append(css, appendIndex, space);
+                        appendIndex = space + 1;
+                    }
+                    sb.append(css, appendIndex, pos).append('0');
+                    appendIndex = end;
+                }
+
+                // Move on to the next word, if any.
+                int wordEnd = end;
+                while (wordEnd < css.length() && isWordChar(css.charAt(wordEnd))) {
+                    wordEnd++;
+                }
+                if ((wordEnd == pos && end == pos) || wordEnd == css.length() ||
+                        separators.indexOf(css.charAt(wordEnd)) < 0) {
+                    pos = wordEnd;
+                    break;
+                }
+                pos = wordEnd + 1;
+            }
+
+            // The words never contain the start character.
+            index = css.indexOf(start, first ? index : pos);
+            first = false;
+        }
+
+        if (sb == null) {
+            return css;
+        }
+        sb.append(css, appendIndex, css.length());
+        return sb.toString();
+    }
+
+    /*
+     * Replaces 100%{ with to{ at the start of the stylesheet or after a {
+     * or a , (keeping the latter and removing the spaces around 100%), as
+     * replacing the matches of (^|,|\{) ?(?:100% ?\{) until nothing
+     * changed did. As the { ending a match is kept, it can start the next
+     * one, so a single scan is enough.
+     */
+    private static String replaceKeyframe100(String css) {
+
+        StringBuffer sb = null;
+        int appendIndex = 0;
+        int index = 0;
+
+        while (index >= 0 && index < css.length()) {
+            int end = index;
+            if (end < css.length() && css.charAt(end) == ' ') {
+                end++;
+            }
+            if (css.startsWith("100%", end)) {
+                end += 4;
+                if (end < css.length() && css.charAt(end) == ' ') {
+                    end++;
+                }
+                if (end < css.length() && css.charAt(end) == '{') {
+                    if (sb == null) {
+                        sb = new StringBuffer(css.length());
+                    }
+                    sb.append(css, appendIndex, index).append("to{");
+                    appendIndex = end + 1;
+                    index = end + 1;
+                    continue;
+                }
+            }
+            index = nextKeyframeStart(css, index);
+        }
+
+        if (sb == null) {
+            return css;
+        }
+        sb.append(css, appendIndex, css.length());
+        return sb.toString();
+    }
+
+    /*
+     * Returns the index following the next { or , found at or after index,
+     * or -1.
+     */
+    private static int nextKeyframeStart(String css, int index) {
+        for (int i = index; i < css.length(); i++) {
+            char c = css.charAt(i);
+            if (c == '{' || c == ',') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Shortens the colors, in a single scan of the stylesheet:
+     * - from rgb(51,102,153), and the opaque rgba(), hsl() and hsla()
+     *   colors, to #336699 (see CssColors.shorten.) This makes it more
+     *   likely that they'll get further compressed by the next rules.
+     * - from #AABBCC to #ABC. Note that we want to make sure the color is
+     *   not preceded by either ", " or =. Indeed, the property
+     *       filter: chroma(color="#FFFFFF");
+     *   would become
+     *       filter: chroma(color="#FFF");
+     *   which makes the filter break in IE. We also want to make sure we're
+     *   only compressing #AABBCC patterns inside { }, not id selectors
+     *   ( #FAABAC {} ), and to avoid compressing invalid values (e.g.
+     *   #AABBCCD to #ABCD.)
+     * - from #f00 to red, and the other colors preceded by : or a space and
+     *   followed by ; or } to their keyword, when it is shorter.
+     * Each rule looks at the result of the previous ones, as when they were
+     * applied one after the other to the whole stylesheet: rgb(255,0,0)
+     * becomes red, and so does rgb(255,0)0; (i.e. #ff00 followed by 0.)
+     */
+    private static String shortenColors(String css) {
+
+        StringBuffer sb = new StringBuffer(css.length());
+        int appendIndex = 0;
+        int openBrace = css.indexOf('{');
+        int closeBrace = css.indexOf('}');
+        int hashIndex = css.indexOf('#');
+        int rgbIndex = css.indexOf("rgb");
+        int hslIndex = css.indexOf("hsl");
+
+        while (hashIndex >= 0 || rgbIndex >= 0 || hslIndex >= 0) {
+
+            int start = hashIndex;
+            if (rgbIndex >= 0 && (start < 0 || rgbIndex < start)) {
+                start = rgbIndex;
+            }
+            if (hslIndex >= 0 && (start < 0 || hslIndex < start)) {
+                start = hslIndex;
+            }
+
+            // The color found at start, and the index which follows it.
+            String color = null;
+            int end = start;
+
+            if (start == hashIndex) {
+                color = "#";
+                end = start + 1;
+
+            } else if (start == rgbIndex) {
+                // The text is scanned by hand, as rgb\s*\(\s*([0-9,\s]+)\s*\)
+                // backtracks a lot on long lists of numbers which are not
+                // followed by a parenthesis.
+                int open = skipSpaces(css, start + 3);
+                rgbIndex = css.indexOf("rgb", open);
+                if (css.startsWith("a(", start + 3)) {
+                    if (start == 0 || !isWordChar(css.charAt(start - 1))) {
+                        end = functionEnd(css, start + 5);
+                        if (end > 0) {
+                            color = CssColors.shorten("rgba", css.substring(start + 5, end - 1));
+                        }
+                    }
+                } else if (open < css.length() && css.charAt(open) == '(') {
+                    int groupStart = skipSpaces(css, open + 1);
+                    int groupEnd = groupStart;
+                    while (groupEnd < css.length() && (isDigit(css.charAt(groupEnd)) ||
+                            css.charAt(groupEnd) == ',' || isSpace(css.charAt(groupEnd)))) {
+                        groupEnd++;
+                    }
+                    // if there are only spaces, the last one is the group
+                    if (groupEnd < css.length() && css.charAt(groupEnd) == ')' &&
+                            (groupStart < groupEnd || groupStart > open + 1)) {
+                        if (groupStart == groupEnd) {
+                            groupStart--;
+                        }
+                        end = groupEnd + 1;
+
+                        String[] rgbcolors = css.substring(groupStart, groupEnd).split(",");
+                        StringBuffer hexcolor = new StringBuffer("#");
+                        for (int i = 0; i < rgbcolors.length; i++) {
+                            // Leave the color alone unless each component is
+                            // a plain integer (e.g. not rgb(0 0 0).)
+                            int val = parseComponent(rgbcolors[i]);
+                            if (val < 0) {
+                                hexcolor = null;
+                                break;
+                            }
+                            if (val < 16) {
+                                hexcolor.append("0");
+                            }
+
+                            // If someone passes an RGB value that's too big to express in two characters, round down.
+                            // Probably should throw out a warning here, but generating valid CSS is a bigger concern.
+                            if (val > 255) {
+                                val = 255;
+                            }
+                            hexcolor.append(Integer.toHexString(val));
+                        }
+                        color = hexcolor == null ? null : hexcolor.toString();
+                    }
+                }
+
+            } else {
+                hslIndex = css.indexOf("hsl", start + 3);
+                int open = css.startsWith("hsla(", start) ? start + 5 : css.startsWith("hsl(", start) ? start + 4 : -1;
+                if (open > 0 && (start == 0 || !isWordChar(css.charAt(start - 1)))) {
+                    end = functionEnd(css, open);
+                    if (end > 0) {
+                        color = CssColors.shorten(css.substring(start, open - 1), css.substring(open, end - 1));
+                    }
+                }
+            }
+
+            if (color == null) {
+                continue;
+            }
+
+            if (color.charAt(0) == '#') {
+
+                // #AABBCC to #ABC. An rgb() color may have more or less than
+                // 6 digits, so look at the text which follows it too.
+                String ahead = color.substring(1) + css.substring(end, Math.min(end + 7, css.length()));
+                if (ahead.length() >= 7 && isHexColor(ahead, 0) && !isHexDigit(ahead.charAt(6))) {
+
+                    // ...followed by a } before any {
+                    int colorEnd = end + 7 - color.length();
+                    if (openBrace >= 0 && openBrace < colorEnd) {
+                        openBrace = css.indexOf('{', colorEnd);
+                    }
+                    if (closeBrace >= 0 && closeBrace < colorEnd) {
+                        closeBrace = css.indexOf('}', colorEnd);
+                    }
+
+                    if (closeBrace >= 0 && (openBrace < 0 || openBrace > closeBrace)) {
+
+                        // Is it preceded by = and maybe some spaces and a quote?
+                        int filterIndex = start;
+                        if (filterIndex > appendIndex && (css.charAt(filterIndex - 1) == '"' || css.charAt(filterIndex - 1) == '\'')) {
+                            filterIndex--;
+                        }
+                        while (filterIndex > appendIndex && isSpace(css.charAt(filterIndex - 1))) {
+                            filterIndex--;
+                        }
+                        boolean isFilter = filterIndex > appendIndex && css.charAt(filterIndex - 1) == '=';
+
+                        String hex = ahead.substring(0, 6);
+                        if (isFilter) {
+                            // Restore, as is. Compression will break filters
+                            color = "#" + hex;
+                        } else {
+                            hex = hex.toLowerCase();
+                            if (hex.charAt(0) == hex.charAt(1) &&
+                                hex.charAt(2) == hex.charAt(3) &&
+                                hex.charAt(4) == hex.charAt(5)) {
+
+                                // #AABBCC pattern
+                                color = "#" + hex.charAt(1) + hex.charAt(3) + hex.charAt(5);
+
+                            } else {
+
+                                // Non-compressible color, restore, but lower case.
+                                color = "#" + hex;
+                            }
+                        }
+                        end = colorEnd;
+                    }
+                }
+
+                // #f00 to red
+                if (start > appendIndex && (css.charAt(start - 1) == ':' || isSpace(css.charAt(start - 1)))) {
+                    ahead = color + css.substring(end, Math.min(end + 7, css.length()));
+                    for (int length = 4; length <= 7; length += 3) {
+                        if (ahead.length() > length && (ahead.charAt(length) == ';' || ahead.charAt(length) == '}')) {
+                            String keyword = CssColors.getKeyword(ahead.substring(0, length));
+                            if (keyword != null) {
+                                end += length - color.length();
+                                color = keyword;
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+
+            sb.append(css, appendIndex, start).append(color);
+            appendIndex = end;
+
+            if (hashIndex >= 0 && hashIndex < end) {
+                hashIndex = css.indexOf('#', end);
+            }
+            if (rgbIndex >= 0 && rgbIndex < end) {
+                rgbIndex = css.indexOf("rgb", end);
+            }
+            if (hslIndex >= 0 && hslIndex < end) {
+                hslIndex = css.indexOf("hsl", end);
+            }
+        }
+
+        sb.append(css, appendIndex, css.length());
+        return sb.toString();
+    }
+
+    /*
+     * Returns the value of the rgb() component, or -1 if it is not made of
+     * digits only, or too large for an int.
+     */
+    private static int parseComponent(String s) {
+        if (s.length() == 0) {
+            return -1;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (!isDigit(s.charAt(i))) {
+                return -1;
+            }
+        }
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /*
+     * Returns the index following the ) which closes the arguments of the
+     * color function starting at index, or -1 if the arguments contain
+     * anything else than numbers, units and commas.
+     */
+    private static int functionEnd(String css, int index) {
+        while (index < css.length() && (isWordChar(css.charAt(index)) ||
+                css.charAt(index) == ',' || css.charAt(index) == '%')) {
+            index++;
+        }
+        return index < css.length() && css.charAt(index) == ')' ? index + 1 : -1;
+    }
+
+    /*
+     * Replaces the colons found in the text which starts the stylesheet or
+     * follows a }, up to the next {, with ___YUICSSMIN_PSEUDOCLASSCOLON___.
+     * This is what replacing the colons in the matches of
+     * (^|\})((^|([^\{:])+):)+([^\{]*\{) did, without the exponential
+     * backtracking of its nested quantifiers on long runs of text without
+     * any {. Only the text which starts the stylesheet may start with a
+     * colon, and the text must contain a colon.
+     */
+    private static String markPseudoClassColons(String css) {
+
+        StringBuffer sb = new StringBuffer(css.length());
+        int appendIndex = 0;
+        int openBrace = css.indexOf('{');
+        int colon = css.indexOf(':');
+        int start = 0;
+        int from = 0;
+        boolean atStart = true;
+
+        while (openBrace >= 0 && colon >= 0) {
+            if (!atStart) {
+                int closeBrace = css.indexOf('}', from);
+                if (closeBrace < 0) {
+                    break;
+                }
+                start = closeBrace + 1;
+            }
+            if (openBrace < start) {
+                openBrace = css.indexOf('{', start);
+            }
+            if (colon < start) {
+                colon = css.indexOf(':', start);
+            }
+            if (openBrace >= 0 && colon >= 0 && colon < openBrace && (atStart || colon > start)) {
+                sb.append(css, appendIndex, start);
+                for (int i = start; i < openBrace; i++) {
+                    char c = css.charAt(i);
+                    if (c == ':') {
+                        sb.append("___YUICSSMIN_PSEUDOCLASSCOLON___");
+                    } else {
+                        sb.append(c);
+                    }
+                }
+                appendIndex = openBrace;
+                from = openBrace + 1;
+            } else {
+                from = start;
+            }
+            atStart = false;
+        }
+
+        sb.append(css, appendIndex, css.length());
+        return sb.toString();
+    }
+
+    /*
+     * Removes the empty rules, i.e. the matches of [^\}\{/;]+\{\}, without
+     * the quadratic backtracking of that regex on long selectors.
+     */
+    private static String removeEmptyRules(String css) {
+
+        StringBuffer sb = new StringBuffer(css.length());
+        int appendIndex = 0;
+        int runStart = 0;
+
+        for (int i = 0; i < css.length(); i++) {
+            char c = css.charAt(i);
+            if (c == '{' && runStart < i && i + 1 < css.length() && css.charAt(i + 1) == '}') {
+                sb.append(css, appendIndex, runStart);
+                appendIndex = i + 2;
+                runStart = i + 2;
+                i++;
+            } else if (c == '}' || c == '{' || c == '/' || c == ';') {
+                runStart = i + 1;
+            }
+        }
+
+        sb.append(css, appendIndex, css.length());
+        return sb.toString();
+    }
+
     public void compress(Writer out, int linebreakpos)
             throws IOException {
+        compress(srcsb, out, linebreakpos);
+    }
+
+    /**
+     * Compresses the stylesheet read from in one top-level rule (or at-rule
+     * block) at a time, writing each rule as soon as it is closed, so that
+     * the memory used depends on the size of the largest rule instead of
+     * the size of the stylesheet. Can be called the same way as
+     * compress(CharSequence, Writer, int). The output is the same, except
+     * that the lines are broken based on the length of the output, and that
+     * a @charset rule cannot be moved to the top of the stylesheet once the
+     * rules preceding it were written: the first @charset rule is kept
+     * where it is found, and the later ones are dropped. See canStream.
+     */
+    public void compressStream(Reader in, Writer out, int linebreakpos)
+            throws IOException {
+
+        CssRuleReader rules = new CssRuleReader(in);
+        int column = 0;
+        // Whether a line break is due before the next output.
+        boolean newline = false;
+        boolean charset = false;
+        String rule;
+
+        while ((rule = rules.nextRule()) != null) {
+
+            StringWriter result = new StringWriter();
+            compress(rule, result, -1);
+            String css = result.toString();
+
+            // The @charset rules of a rule are moved in front of it, and
+            // only one of them is kept.
+            if (css.regionMatches(true, 0, "@charset ", 0, 9) && css.indexOf(';') > 0) {
+                if (charset) {
+                    css = css.substring(css.indexOf(';') + 1);
+                }
+                charset = true;
+            }
+
+            if (linebreakpos < 0) {
+                out.write(css);
+                continue;
+            }
+
+            // Break the lines after a } found past the specified column,
+            // skipping the strings and comments, whose content is written
+            // as is. Like compress, the line break is not written after
+            // the last rule, and the column counts it.
+            int appendIndex = 0;
+            for (int i = 0; i < css.length(); i++) {
+                char c = css.charAt(i);
+                int end = i;
+                if (c == '"' || c == '\'') {
+                    end++;
+                    while (end < css.length() && css.charAt(end) != c) {
+                        end += css.charAt(end) == '\\' ? 2 : 1;
+                    }
+                } else if (c == '/' && css.startsWith("/*", i)) {
+                    end = css.indexOf("*/", i + 2);
+                    end = end < 0 ? css.length() : end + 1;
+                }
+                column += Math.min(end, css.length() - 1) - i + 1;
+                i = end;
+                if (c == '}' && column > linebreakpos) {
+                    if (newline) {
+                        out.write('\n');
+                    }
+                    out.write(css, appendIndex, i + 1 - appendIndex);
+                    newline = true;
+                    appendIndex = i + 1;
+                    column = 1;
+                }
+            }
+            if (appendIndex < css.length()) {
+                if (newline) {
+                    out.write('\n');
+                    newline = false;
+                }
+                out.write(css, appendIndex, css.length() - appendIndex);
+            }
+        }
+    }
+
+    /**
+     * Returns true if compressStream gives the same output as compress for
+     * the stylesheet read from in (line breaks aside), i.e. if it contains
+     * no @charset rule, except at its very start.
+     */
+    static boolean canStream(Reader in) throws IOException {
+        final String charset = "@charset";
+        char[] buffer = new char[65536];
+        // The characters kept from the previous block.
+        int kept = 0;
+        boolean leading = true;
+        int n;
+        while ((n = in.read(buffer, kept, buffer.length - kept)) != -1) {
+            int length = kept + n;
+            for (int i = 0; i + charset.length() <= length; i++) {
+                char c = buffer[i];
+                if (leading && !isSpace(c)) {
+                    leading = false;
+                    if (c == '@' && regionMatches(buffer, i, charset)) {
+                        i += charset.length() - 1;
+                        continue;
+                    }
+                }
+                if (c == '@' && regionMatches(buffer, i, charset)) {
+                    return false;
+                }
+            }
+            kept = Math.min(length, charset.length() - 1);
+            System.arraycopy(buffer, length - kept, buffer, 0, kept);
+        }
+        return true;
+    }
+
+    /*
+     * Returns true if the lower case string s is found at index, ignoring
+     * case.
+     */
+    private static boolean regionMatches(char[] buffer, int index, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.toLowerCase(buffer[index + i]) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compresses the specified stylesheet. Unlike compress(Writer, int),
+     * this method can be called any number of times, and from several
+     * threads at once, on an instance created with the no-arg constructor
+     * (as long as setUseTokenizer is not called concurrently.)
+     */
+    public void compress(CharSequence in, Writer out, int linebreakpos)
+            throws IOException {
+
+        if (useTokenizer) {
+            new CssTokenCompressor(in.toString()).compress(out, linebreakpos);
+            return;
+        }
 
-        Pattern p;
         Matcher m;
-        String css = srcsb.toString();
+        String css = in.toString();
 
         int startIndex = 0;
         int endIndex = 0;
         int i = 0;
-        int max = 0;
         ArrayList preservedTokens = new ArrayList(0);
         ArrayList comments = new ArrayList(0);
         String token;
@@ -121,32 +1016,44 @@ public class CssCompressor {
         String placeholder;
 
 
-        StringBuffer sb = new StringBuffer(css);
+        StringBuffer sb = null;
+        int appendIndex = 0;
 
         // collect all comment blocks...
-        while ((startIndex = sb.indexOf("/*", startIndex)) >= 0) {
-            endIndex = sb.indexOf("*/", startIndex + 2);
+        while ((startIndex = css.indexOf("/*", endIndex)) >= 0) {
+            if (sb == null) {
+                sb = new StringBuffer(totallen);
+            }
+            endIndex = css.indexOf("*/", startIndex + 2);
             if (endIndex < 0) {
                 endIndex = totallen;
             }
 
-            token = sb.substring(startIndex + 2, endIndex);
+            token = css.substring(startIndex + 2, endIndex);
             comments.add(token);
-            sb.replace(startIndex + 2, endIndex, "___YUICSSMIN_PRESERVE_CANDIDATE_COMMENT_" + (comments.size() - 1) + "___");
-            startIndex += 2;
+            sb.append(css, appendIndex, startIndex + 2);
+            sb.append(COMMENT_PLACEHOLDER).append(comments.size() - 1).append("___");
+            appendIndex = endIndex;
+            // The next comment can only start after the */ ("*/*" does not
+            // open a new comment.)
+            endIndex += 2;
+        }
+        // Without comments, the input is kept as is, and the data URLs found
+        // in it are not copied.
+        if (sb != null) {
+            sb.append(css, appendIndex, totallen);
+            css = sb.toString();
         }
-        css = sb.toString();
 
 
-        css = this.preserveToken(css, "url", "(?i)url\\(\\s*([\"']?)data\\:", true, preservedTokens);
-        css = this.preserveToken(css, "calc",  "(?i)calc\\(\\s*([\"']?)", false, preservedTokens);
-        css = this.preserveToken(css, "progid:DXImageTransform.Microsoft.Matrix",  "(?i)progid:DXImageTransform.Microsoft.Matrix\\s*([\"']?)", false, preservedTokens);
+        css = preserveToken(css, "url", DATA_URL_PATTERN, true, preservedTokens);
+        css = preserveToken(css, "calc", CALC_PATTERN, false, preservedTokens);
+        css = preserveToken(css, "progid:DXImageTransform.Microsoft.Matrix", MATRIX_PATTERN, false, preservedTokens);
 
 
         // preserve strings so their content doesn't get accidentally minified
         sb = new StringBuffer();
-        p = Pattern.compile("(\"([^\\\\\"]|\\\\.|\\\\)*\")|(\'([^\\\\\']|\\\\.|\\\\)*\')");
-        m = p.matcher(css);
+        m = STRING_PATTERN.matcher(css);
         while (m.find()) {
             token = m.group();
             char quote = token.charAt(0);
@@ -154,17 +1061,13 @@ public class CssCompressor {
 
             // maybe the string contains a comment-like substring?
             // one, maybe more? put'em back then
-            if (token.indexOf("___YUICSSMIN_PRESERVE_CANDIDATE_COMMENT_") >= 0) {
-                for (i = 0, max = comments.size(); i < max; i += 1) {
-                    token = token.replace("___YUICSSMIN_PRESERVE_CANDIDATE_COMMENT_" + i + "___", comments.get(i).toString());
-                }
-            }
+            token = restoreTokens(token, COMMENT_PLACEHOLDER, comments);
 
             // minify alpha opacity in filter strings
-            token = token.replaceAll("(?i)progid:DXImageTransform.Microsoft.Alpha\\(Opacity=", "alpha(opacity=");
+            token = ALPHA_OPACITY_PATTERN.matcher(token).replaceAll("alpha(opacity=");
 
             preservedTokens.add(token);
-            String preserver = quote + "___YUICSSMIN_PRESERVED_TOKEN_" + (preservedTokens.size() - 1) + "___" + quote;
+            String preserver = quote + TOKEN_PLACEHOLDER + (preservedTokens.size() - 1) + "___" + quote;
             m.appendReplacement(sb, preserver);
         }
         m.appendTail(sb);
@@ -172,45 +1075,61 @@ public class CssCompressor {
 
 
         // strings are safe, now wrestle the comments
-        for (i = 0, max = comments.size(); i < max; i += 1) {
-
-            token = comments.get(i).toString();
-            placeholder = "___YUICSSMIN_PRESERVE_CANDIDATE_COMMENT_" + i + "___";
-
-            // ! in the first position of the comment means preserve
-            // so push to the preserved tokens while stripping the !
-            if (token.startsWith("!")) {
-                preservedTokens.add(token);
-                css = css.replace(placeholder,  "___YUICSSMIN_PRESERVED_TOKEN_" + (preservedTokens.size() - 1) + "___");
+        sb = new StringBuffer(css.length());
+        appendIndex = 0;
+        int hackIndex = -1;
+        while ((startIndex = css.indexOf(COMMENT_PLACEHOLDER, appendIndex)) >= 0) {
+
+            endIndex = startIndex + COMMENT_PLACEHOLDER.length();
+            i = parseTokenIndex(css, endIndex, comments.size());
+            if (i < 0) {
+                sb.append(css, appendIndex, endIndex);
+                appendIndex = endIndex;
                 continue;
             }
+            endIndex += String.valueOf(i).length() + 3;
 
-            // \ in the last position looks like hack for Mac/IE5
-            // shorten that to /*\*/ and the next one to /**/
-            if (token.endsWith("\\")) {
-                preservedTokens.add("\\");
-                css = css.replace(placeholder,  "___YUICSSMIN_PRESERVED_TOKEN_" + (preservedTokens.size() - 1) + "___");
-                i = i + 1; // attn: advancing the loop
-                preservedTokens.add("");
-                css = css.replace("___YUICSSMIN_PRESERVE_CANDIDATE_COMMENT_" + i + "___",  "___YUICSSMIN_PRESERVED_TOKEN_" + (preservedTokens.size() - 1) + "___");
-                continue;
-            }
-
-            // keep empty comments after child selectors (IE7 hack)
-            // e.g. html >/**/ body
-            if (token.length() == 0) {
-                startIndex = css.indexOf(placeholder);
-                if (startIndex > 2) {
-                    if (css.charAt(startIndex - 3) == '>') {
-                        preservedTokens.add("");
-                        css = css.replace(placeholder,  "___YUICSSMIN_PRESERVED_TOKEN_" + (preservedTokens.size() - 1) + "___");
-                    }
+            token = comments.get(i).toString();
+            String preserved = null;
+
+            if (i == hackIndex) {
+                // the comment following the Mac/IE5 hack
+                preserved = "";
+            } else if (token.startsWith("!")) {
+                // ! in the first position of the comment means preserve
+                // so push to the preserved tokens while stripping the !
+                preserved = token;
+            } else if (token.endsWith("\\")) {
+                // \ in the last position looks like hack for Mac/IE5
+                // shorten that to /*\*/ and the next one to /**/
+                preserved = "\\";
+                hackIndex = i + 1;
+            } else if (token.length() == 0) {
+                // keep empty comments after child selectors (IE7 hack)
+                // e.g. html >/**/ body
+                char previous = startIndex - 2 > appendIndex ? css.charAt(startIndex - 3) :
+                        sb.length() > 0 ? sb.charAt(sb.length() - 1) : 0;
+                if (previous == '>') {
+                    preserved = "";
                 }
             }
 
-            // in all other cases kill the comment
-            css = css.replace("/*" + placeholder + "*/", "");
+            if (preserved != null) {
+                preservedTokens.add(preserved);
+                sb.append(css, appendIndex, startIndex);
+                sb.append(TOKEN_PLACEHOLDER).append(preservedTokens.size() - 1).append("___");
+                appendIndex = endIndex;
+            } else if (css.startsWith("/*", startIndex - 2) && css.startsWith("*/", endIndex)) {
+                // in all other cases kill the comment
+                sb.append(css, appendIndex, startIndex - 2);
+                appendIndex = endIndex + 2;
+            } else {
+                sb.append(css, appendIndex, endIndex);
+                appendIndex = endIndex;
+            }
         }
+        sb.append(css, appendIndex, css.length());
+        css = sb.toString();
 
         // preserve \9 IE hack
         final String backslash9 = "\\9"; 
@@ -220,33 +1139,22 @@ public class CssCompressor {
      	}
         
         // Normalize all whitespace strings to single spaces. Easier to work with that way.
-        css = css.replaceAll("\\s+", " ");
+        css = WHITESPACE_PATTERN.matcher(css).replaceAll(" ");
 
         // Remove the spaces before the things that should not have spaces before them.
         // But, be careful not to turn "p :link {...}" into "p:link{...}"
         // Swap out any pseudo-class colons with the token, and then swap back.
-        sb = new StringBuffer();
-        p = Pattern.compile("(^|\\})((^|([^\\{:])+):)+([^\\{]*\\{)");
-        m = p.matcher(css);
-        while (m.find()) {
-            String s = m.group();
-            s = s.replaceAll(":", "___YUICSSMIN_PSEUDOCLASSCOLON___");
-            s = s.replaceAll( "\\\\", "\\\\\\\\" ).replaceAll( "\\$", "\\\\\\$" );
-            m.appendReplacement(sb, s);
-        }
-        m.appendTail(sb);
-        css = sb.toString();
+        css = markPseudoClassColons(css);
         // Remove spaces before the things that should not have spaces before them.
-        css = css.replaceAll("\\s+([!{};:>+\\(\\)\\],])", "$1");
+        css = SPACE_BEFORE_PATTERN.matcher(css).replaceAll("$1");
         // Restore spaces for !important
-        css = css.replaceAll("!important", " !important");
+        css = IMPORTANT_PATTERN.matcher(css).replaceAll(" !important");
         // bring back the colon
-        css = css.replaceAll("___YUICSSMIN_PSEUDOCLASSCOLON___", ":");
+        css = PSEUDO_CLASS_COLON_PATTERN.matcher(css).replaceAll(":");
 
         // retain space for special IE6 cases
         sb = new StringBuffer();
-        p = Pattern.compile("(?i):first\\-(line|letter)(\\{|,)");
-        m = p.matcher(css);
+        m = FIRST_LINE_PATTERN.matcher(css);
         while (m.find()) {
             m.appendReplacement(sb, ":first-" + m.group(1).toLowerCase() + " " + m.group(2));
         }
@@ -254,14 +1162,13 @@ public class CssCompressor {
         css = sb.toString();
 
         // no space after the end of a preserved comment
-        css = css.replaceAll("\\*/ ", "*/");
+        css = COMMENT_END_SPACE_PATTERN.matcher(css).replaceAll("*/");
 
         // If there are multiple @charset directives, push them to the top of the file.
         sb = new StringBuffer();
-        p = Pattern.compile("(?i)^(.*)(@charset)( \"[^\"]*\";)");
-        m = p.matcher(css);
+        m = CHARSET_PATTERN.matcher(css);
         while (m.find()) {
-            String s = m.group(1).replaceAll("\\\\", "\\\\\\\\").replaceAll("\\$", "\\\\\\$");
+            String s = Matcher.quoteReplacement(m.group(1));
             m.appendReplacement(sb, m.group(2).toLowerCase() + m.group(3) + s);
         }
         m.appendTail(sb);
@@ -269,18 +1176,150 @@ public class CssCompressor {
 
         // When all @charset are at the top, remove the second and after (as they are completely ignored).
         sb = new StringBuffer();
-        p = Pattern.compile("(?i)^((\\s*)(@charset)( [^;]+;\\s*))+");
-        m = p.matcher(css);
+        m = LEADING_CHARSETS_PATTERN.matcher(css);
         while (m.find()) {
             m.appendReplacement(sb, m.group(2) + m.group(3).toLowerCase() + m.group(4));
         }
         m.appendTail(sb);
         css = sb.toString();
 
-        // lowercase some popular @directives (@charset is done right above)
+        // The following rules never look past the } ending the text they
+        // apply to, so large stylesheets are compressed in segments.
+        css = compressSegments(css);
+
+        // TODO: Should this be after we re-insert tokens. These could alter the break points. However then
+        // we'd need to make sure we don't break in the middle of a string etc.
+        if (linebreakpos >= 0) {
+            // Some source control tools don't like it when files containing lines longer
+            // than, say 8000 characters, are checked in. The linebreak option is used in
+            // that case to split long lines after a specific column.
+            i = 0;
+            int linestartpos = 0;
+            sb = new StringBuffer(css);
+            while (i < sb.length()) {
+                char c = sb.charAt(i++);
+                if (c == '}' && i - linestartpos > linebreakpos) {
+                    sb.insert(i, '\n');
+                    linestartpos = i;
+                }
+            }
+
+            css = sb.toString();
+        }
+
+        // Replace multiple semi-colons in a row by a single one
+        // See SF bug #1980989
+        css = SEMICOLONS_PATTERN.matcher(css).replaceAll(";");
+
+        // restore preserved comments and strings
+        css = restoreTokens(css, TOKEN_PLACEHOLDER, preservedTokens);
+        
+        // Add spaces back in between operators for css calc function
+        // https://developer.mozilla.org/en-US/docs/Web/CSS/calc
+        // Added by Eric Arnol-Martin (earnolmartin@gmail.com)
         sb = new StringBuffer();
-        p = Pattern.compile("(?i)@(font-face|import|(?:-(?:atsc|khtml|moz|ms|o|wap|webkit)-)?keyframe|media|page|namespace)");
-        m = p.matcher(css);
+        m = CALC_FUNCTION_PATTERN.matcher(css);
+        while (m.find()) {
+            String s = m.group();
+            
+            for (i = 0; i < CALC_OPERATOR_PATTERNS.length; i++) {
+                s = CALC_OPERATOR_PATTERNS[i].matcher(s).replaceAll(CALC_OPERATORS[i]);
+            }
+            
+            m.appendReplacement(sb, s);
+        }
+        m.appendTail(sb);
+        css = sb.toString(); 
+
+        // Trim the final string (for any leading or trailing white spaces)
+        css = css.trim();
+
+        // Write the output, and the data URLs
+        writeDataUrls(css, preservedTokens, out);
+    }
+
+    /*
+     * Same as compressRules(css), except that large stylesheets are split
+     * into segments of at least parallelThreshold characters, each ending
+     * with a }, which are compressed concurrently using up to parallelism
+     * threads. Every segment but the first is compressed along with the }
+     * which precedes it (and removed afterwards), so that the rules see the
+     * same text before the segment. As none of them matches across a }, or
+     * looks past the one ending the text it applies to, the result is the
+     * same as when compressing the whole stylesheet at once.
+     */
+    private String compressSegments(String css) {
+
+        if (parallelism <= 1 || css.length() < 2 * parallelThreshold) {
+            return compressRules(css);
+        }
+
+        ArrayList segments = new ArrayList();
+        int start = 0;
+        while (start < css.length()) {
+            int end = css.indexOf('}', Math.min(start + Math.max(parallelThreshold, 1), css.length()) - 1);
+            end = end < 0 ? css.length() : end + 1;
+            segments.add(css.substring(start == 0 ? 0 : start - 1, end));
+            start = end;
+        }
+
+        if (segments.size() < 2) {
+            return compressRules(css);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(parallelism, segments.size() - 1));
+        try {
+            ArrayList futures = new ArrayList();
+            for (int i = 1; i < segments.size(); i++) {
+                final String segment = (String) segments.get(i);
+                futures.add(executor.submit(new Callable() {
+                    public Object call() {
+                        return compressRules(segment).substring(1);
+                    }
+                }));
+            }
+
+            // Take care of the first segment while the others are being
+            // compressed...
+            StringBuffer sb = new StringBuffer(css.length());
+            sb.append(compressRules((String) segments.get(0)));
+
+            for (int i = 0; i < futures.size(); i++) {
+                Future future = (Future) futures.get(i);
+                try {
+                    sb.append((String) future.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause.toString());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while compressing");
+                }
+            }
+            return sb.toString();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * Applies the rules which are local to the text found between two }
+     * (lowercasing, zeros, colors and empty rules) to the stylesheet.
+     */
+    private static String compressRules(String css) {
+
+        StringBuffer sb;
+        Matcher m;
+
+        // lowercase some popular @directives (@charset is done before the segments are compressed)
+        sb = new StringBuffer();
+        m = DIRECTIVE_PATTERN.matcher(css);
         while (m.find()) {
             m.appendReplacement(sb, '@' + m.group(1).toLowerCase());
         }
@@ -289,8 +1328,7 @@ public class CssCompressor {
 
         // lowercase some more common pseudo-elements
         sb = new StringBuffer();
-        p = Pattern.compile("(?i):(active|after|before|checked|disabled|empty|enabled|first-(?:child|of-type)|focus|hover|last-(?:child|of-type)|link|only-(?:child|of-type)|root|:selection|target|visited)");
-        m = p.matcher(css);
+        m = PSEUDO_ELEMENT_PATTERN.matcher(css);
         while (m.find()) {
             m.appendReplacement(sb, ':' + m.group(1).toLowerCase());
         }
@@ -299,8 +1337,7 @@ public class CssCompressor {
 
         // lowercase some more common functions
         sb = new StringBuffer();
-        p = Pattern.compile("(?i):(lang|not|nth-child|nth-last-child|nth-last-of-type|nth-of-type|(?:-(?:moz|webkit)-)?any)\\(");
-        m = p.matcher(css);
+        m = PSEUDO_FUNCTION_PATTERN.matcher(css);
         while (m.find()) {
             m.appendReplacement(sb, ':' + m.group(1).toLowerCase() + '(');
         }
@@ -310,8 +1347,7 @@ public class CssCompressor {
         // lower case some common function that can be values
         // NOTE: rgb() isn't useful as we replace with #hex later, as well as and() is already done for us right after this
         sb = new StringBuffer();
-        p = Pattern.compile("(?i)([:,\\( ]\\s*)(attr|color-stop|from|rgba|to|url|(?:-(?:atsc|khtml|moz|ms|o|wap|webkit)-)?(?:calc|max|min|(?:repeating-)?(?:linear|radial)-gradient)|-webkit-gradient)");
-        m = p.matcher(css);
+        m = VALUE_FUNCTION_PATTERN.matcher(css);
         while (m.find()) {
             m.appendReplacement(sb, m.group(1) + m.group(2).toLowerCase());
         }
@@ -320,62 +1356,39 @@ public class CssCompressor {
 
         // Put the space back in some cases, to support stuff like
         // @media screen and (-webkit-min-device-pixel-ratio:0){
-        css = css.replaceAll("(?i)\\band\\(", "and (");
+        css = AND_PATTERN.matcher(css).replaceAll("and (");
 
         // Remove the spaces after the things that should not have spaces after them.
-        css = css.replaceAll("([!{}:;>+\\(\\[,])\\s+", "$1");
+        css = SPACE_AFTER_PATTERN.matcher(css).replaceAll("$1");
 
         // remove unnecessary semicolons
-        css = css.replaceAll(";+}", "}");
+        css = SEMICOLONS_BEFORE_BRACE_PATTERN.matcher(css).replaceAll("}");
 
         // Replace 0(px,em) with 0. (don't replace seconds are they are needed for transitions to be valid)
-        String oldCss;
-        p = Pattern.compile("(?i)(^|: ?)((?:[0-9a-z-.]+ )*?)?(?:0?\\.)?0(?:px|em|in|cm|mm|pc|pt|ex|deg|g?rad|k?hz)");
-        do {
-          oldCss = css;
-          m = p.matcher(css);
-          css = m.replaceAll("$1$20");
-        } while (!(css.equals(oldCss)));
-        
+        css = replaceZeros(css, ':', true, " ", ZERO_UNITS, false);
+
         // We do the same with % but don't replace the 0% in keyframes
-        String oldCss;
-        p = Pattern.compile("(?i)(: ?)((?:[0-9a-z-.]+ )*?)?(?:0?\\.)?0(?:%)");
-        do {
-          oldCss = css;
-          m = p.matcher(css);
-          css = m.replaceAll("$1$20");
-        } while (!(css.equals(oldCss)));
-        
+        css = replaceZeros(css, ':', false, " ", ZERO_PERCENT_UNITS, false);
+
         //Replace the keyframe 100% step with 'to' which is shorter
-        p = Pattern.compile("(?i)(^|,|{) ?(?:100% ?{)");
-        do {
-          oldCss = css;
-          m = p.matcher(css);
-          css = m.replaceAll("$1to{");
-        } while (!(css.equals(oldCss)));
+        css = replaceKeyframe100(css);
 
         // Replace 0(px,em,%) with 0 inside groups (e.g. -MOZ-RADIAL-GRADIENT(CENTER 45DEG, CIRCLE CLOSEST-SIDE, ORANGE 0%, RED 100%))
-        p = Pattern.compile("(?i)\\( ?((?:[0-9a-z-.]+[ ,])*)?(?:0?\\.)?0(?:px|em|%|in|cm|mm|pc|pt|ex|deg|g?rad|m?s|k?hz)");
-        do {
-          oldCss = css;
-          m = p.matcher(css);
-          css = m.replaceAll("($10");
-        } while (!(css.equals(oldCss)));
+        css = replaceZeros(css, '(', false, " ,", ZERO_IN_GROUP_UNITS, true);
 
         // Replace x.0(px,em,%) with x(px,em,%).
-        css = css.replaceAll("([0-9])\\.0(px|em|%|in|cm|mm|pc|pt|ex|deg|m?s|g?rad|k?hz| |;)", "$1$2");
+        css = TRAILING_ZERO_PATTERN.matcher(css).replaceAll("$1$2");
 
         // Replace 0 0 0 0; with 0.
-        css = css.replaceAll(":0 0 0 0(;|})", ":0$1");
-        css = css.replaceAll(":0 0 0(;|})", ":0$1");
-        css = css.replaceAll("(?<!flex):0 0(;|})", ":0$1");
+        css = FOUR_ZEROS_PATTERN.matcher(css).replaceAll(":0$1");
+        css = THREE_ZEROS_PATTERN.matcher(css).replaceAll(":0$1");
+        css = TWO_ZEROS_PATTERN.matcher(css).replaceAll(":0$1");
 
 
         // Replace background-position:0; with background-position:0 0;
         // same for transform-origin
         sb = new StringBuffer();
-        p = Pattern.compile("(?i)(background-position|webkit-mask-position|transform-origin|webkit-transform-origin|moz-transform-origin|o-transform-origin|ms-transform-origin):0(;|})");
-        m = p.matcher(css);
+        m = POSITION_PATTERN.matcher(css);
         while (m.find()) {
             m.appendReplacement(sb, m.group(1).toLowerCase() + ":0 0" + m.group(2));
         }
@@ -383,94 +1396,15 @@ public class CssCompressor {
         css = sb.toString();
 
         // Replace 0.6 to .6, but only when preceded by : or a white-space
-        css = css.replaceAll("(:|\\s)0+\\.(\\d+)", "$1.$2");
-
-        // Shorten colors from rgb(51,102,153) to #336699
-        // This makes it more likely that it'll get further compressed in the next step.
-        p = Pattern.compile("rgb\\s*\\(\\s*([0-9,\\s]+)\\s*\\)");
-        m = p.matcher(css);
-        sb = new StringBuffer();
-        while (m.find()) {
-            String[] rgbcolors = m.group(1).split(",");
-            StringBuffer hexcolor = new StringBuffer("#");
-            for (i = 0; i < rgbcolors.length; i++) {
-                int val = Integer.parseInt(rgbcolors[i]);
-                if (val < 16) {
-                    hexcolor.append("0");
-                }
-
-                // If someone passes an RGB value that's too big to express in two characters, round down.
-                // Probably should throw out a warning here, but generating valid CSS is a bigger concern.
-                if (val > 255) {
-                    val = 255;
-                }
-                hexcolor.append(Integer.toHexString(val));
-            }
-            m.appendReplacement(sb, hexcolor.toString());
-        }
-        m.appendTail(sb);
-        css = sb.toString();
-
-        // Shorten colors from #AABBCC to #ABC. Note that we want to make sure
-        // the color is not preceded by either ", " or =. Indeed, the property
-        //     filter: chroma(color="#FFFFFF");
-        // would become
-        //     filter: chroma(color="#FFF");
-        // which makes the filter break in IE.
-        // We also want to make sure we're only compressing #AABBCC patterns inside { }, not id selectors ( #FAABAC {} )
-        // We also want to avoid compressing invalid values (e.g. #AABBCCD to #ABCD)
-        p = Pattern.compile("(\\=\\s*?[\"']?)?" + "#([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])" + "(:?\\}|[^0-9a-fA-F{][^{]*?\\})");
-
-        m = p.matcher(css);
-        sb = new StringBuffer();
-        int index = 0;
-
-        while (m.find(index)) {
-
-            sb.append(css.substring(index, m.start()));
-
-            boolean isFilter = (m.group(1) != null && !"".equals(m.group(1)));
-
-            if (isFilter) {
-                // Restore, as is. Compression will break filters
-                sb.append(m.group(1) + "#" + m.group(2) + m.group(3) + m.group(4) + m.group(5) + m.group(6) + m.group(7));
-            } else {
-                if( m.group(2).equalsIgnoreCase(m.group(3)) &&
-                    m.group(4).equalsIgnoreCase(m.group(5)) &&
-                    m.group(6).equalsIgnoreCase(m.group(7))) {
+        css = LEADING_ZERO_PATTERN.matcher(css).replaceAll("$1.$2");
 
-                    // #AABBCC pattern
-                    sb.append("#" + (m.group(3) + m.group(5) + m.group(7)).toLowerCase());
-
-                } else {
-
-                    // Non-compressible color, restore, but lower case.
-                    sb.append("#" + (m.group(2) + m.group(3) + m.group(4) + m.group(5) + m.group(6) + m.group(7)).toLowerCase());
-                }
-            }
-
-            index = m.end(7);
-        }
-
-        sb.append(css.substring(index));
-        css = sb.toString();
-
-        // Replace #f00 -> red
-        css = css.replaceAll("(:|\\s)(#f00)(;|})", "$1red$3");
-        // Replace other short color keywords
-        css = css.replaceAll("(:|\\s)(#000080)(;|})", "$1navy$3");
-        css = css.replaceAll("(:|\\s)(#808080)(;|})", "$1gray$3");
-        css = css.replaceAll("(:|\\s)(#808000)(;|})", "$1olive$3");
-        css = css.replaceAll("(:|\\s)(#800080)(;|})", "$1purple$3");
-        css = css.replaceAll("(:|\\s)(#c0c0c0)(;|})", "$1silver$3");
-        css = css.replaceAll("(:|\\s)(#008080)(;|})", "$1teal$3");
-        css = css.replaceAll("(:|\\s)(#ffa500)(;|})", "$1orange$3");
-        css = css.replaceAll("(:|\\s)(#800000)(;|})", "$1maroon$3");
+        // Shorten colors from rgb(51,102,153) to #336699, from #AABBCC to #ABC
+        // and from #f00 to red, in a single scan (see shortenColors.)
+        css = shortenColors(css);
 
         // border: none -> border:0
         sb = new StringBuffer();
-        p = Pattern.compile("(?i)(border|border-top|border-right|border-bottom|border-left|outline|background):none(;|})");
-        m = p.matcher(css);
+        m = NONE_PATTERN.matcher(css);
         while (m.find()) {
             m.appendReplacement(sb, m.group(1).toLowerCase() + ":0" + m.group(2));
         }
@@ -478,70 +1412,18 @@ public class CssCompressor {
         css = sb.toString();
 
         // shorter opacity IE filter
-        css = css.replaceAll("(?i)progid:DXImageTransform.Microsoft.Alpha\\(Opacity=", "alpha(opacity=");
+        css = ALPHA_OPACITY_PATTERN.matcher(css).replaceAll("alpha(opacity=");
 
         // Find a fraction that is used for Opera's -o-device-pixel-ratio query
         // Add token to add the "\" back in later
-        css = css.replaceAll("\\(([\\-A-Za-z]+):([0-9]+)\\/([0-9]+)\\)", "($1:$2___YUI_QUERY_FRACTION___$3)");
+        css = QUERY_FRACTION_PATTERN.matcher(css).replaceAll("($1:$2___YUI_QUERY_FRACTION___$3)");
 
         // Remove empty rules.
-        css = css.replaceAll("[^\\}\\{/;]+\\{\\}", "");
+        css = removeEmptyRules(css);
 
         // Add "\" back to fix Opera -o-device-pixel-ratio query
-        css = css.replaceAll("___YUI_QUERY_FRACTION___", "/");
-
-        // TODO: Should this be after we re-insert tokens. These could alter the break points. However then
-        // we'd need to make sure we don't break in the middle of a string etc.
-        if (linebreakpos >= 0) {
-            // Some source control tools don't like it when files containing lines longer
-            // than, say 8000 characters, are checked in. The linebreak option is used in
-            // that case to split long lines after a specific column.
-            i = 0;
-            int linestartpos = 0;
-            sb = new StringBuffer(css);
-            while (i < sb.length()) {
-                char c = sb.charAt(i++);
-                if (c == '}' && i - linestartpos > linebreakpos) {
-                    sb.insert(i, '\n');
-                    linestartpos = i;
-                }
-            }
-
-            css = sb.toString();
-        }
-
-        // Replace multiple semi-colons in a row by a single one
-        // See SF bug #1980989
-        css = css.replaceAll(";;+", ";");
-
-        // restore preserved comments and strings
-        for(i = 0, max = preservedTokens.size(); i < max; i++) {
-            css = css.replace("___YUICSSMIN_PRESERVED_TOKEN_" + i + "___", preservedTokens.get(i).toString());
-        }
-        
-        // Add spaces back in between operators for css calc function
-        // https://developer.mozilla.org/en-US/docs/Web/CSS/calc
-        // Added by Eric Arnol-Martin (earnolmartin@gmail.com)
-        sb = new StringBuffer();
-        p = Pattern.compile("calc\\([^\\)]*\\)");
-        m = p.matcher(css);
-        while (m.find()) {
-            String s = m.group();
-            
-            s = s.replaceAll("(?<=[-|%|px|em|rem|vw|\\d]+)\\+", " + ");
-            s = s.replaceAll("(?<=[-|%|px|em|rem|vw|\\d]+)\\-", " - ");
-            s = s.replaceAll("(?<=[-|%|px|em|rem|vw|\\d]+)\\*", " * ");
-            s = s.replaceAll("(?<=[-|%|px|em|rem|vw|\\d]+)\\/", " / ");
-            
-            m.appendReplacement(sb, s);
-        }
-        m.appendTail(sb);
-        css = sb.toString(); 
-
-        // Trim the final string (for any leading or trailing white spaces)
-        css = css.trim();
+        css = QUERY_FRACTION_TOKEN_PATTERN.matcher(css).replaceAll("/");
 
-        // Write the output...
-        out.write(css);
+        return css;
     }
 }
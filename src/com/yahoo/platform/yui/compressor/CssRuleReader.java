@@ -0,0 +1,253 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Author: Julien Lecomte -  http://www.julienlecomte.net/
+ * Copyright (c) 2013 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * CssRuleReader splits a stylesheet into top-level rules and at-rule blocks
+ * (each one along with the comments and statements which precede it), as
+ * it is read, so that each of them can be compressed on its own (see
+ * CssCompressor.compressStream.)
+ *
+ * The braces found in comments, strings and data URLs are ignored, the same
+ * way CssCompressor finds them: comments first, even inside strings, then
+ * strings. A rule never ends between a comment ending with \ (Mac/IE5 hack)
+ * and the comment which follows it, as CssCompressor pairs them.
+ */
+class CssRuleReader {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    // Returned by the scanning methods when more input is needed.
+    private static final int MORE = -1;
+    // Returned by the scanning methods when the token is not terminated.
+    private static final int UNTERMINATED = -2;
+
+    private Reader in;
+    private char[] buffer = new char[BUFFER_SIZE];
+    private boolean eof = false;
+
+    // Start of the current rule, position of the scanner and end of the
+    // data read so far.
+    private int start = 0;
+    private int scan = 0;
+    private int end = 0;
+
+    private int depth = 0;
+    // Whether the last comment ended with \ (and was not itself the
+    // comment following such a comment.)
+    private boolean hack = false;
+
+    CssRuleReader(Reader in) {
+        this.in = in;
+    }
+
+    /*
+     * Returns the next rule, including the closing brace, or the text
+     * which follows the last rule, or null at the end of the stylesheet.
+     */
+    String nextRule() throws IOException {
+        while (true) {
+            int ruleEnd = scan();
+            if (ruleEnd >= 0) {
+                String rule = new String(buffer, start, ruleEnd - start);
+                start = ruleEnd;
+                return rule;
+            }
+            if (eof) {
+                if (start == end) {
+                    return null;
+                }
+                String rule = new String(buffer, start, end - start);
+                start = scan = end;
+                return rule;
+            }
+            fill();
+        }
+    }
+
+    private void fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            scan -= start;
+            end -= start;
+            start = 0;
+        }
+        if (end == buffer.length) {
+            char[] tmp = new char[buffer.length * 2];
+            System.arraycopy(buffer, 0, tmp, 0, end);
+            buffer = tmp;
+        }
+        int n = in.read(buffer, end, buffer.length - end);
+        if (n < 0) {
+            eof = true;
+        } else {
+            end += n;
+        }
+    }
+
+    /*
+     * Scans the data read so far, and returns the end of the rule, or MORE.
+     */
+    private int scan() {
+        while (scan < end) {
+            char c = buffer[scan];
+            int next;
+            if (c == '/' && (scan + 1 < end || !eof)) {
+                if (scan + 1 == end) {
+                    return MORE;
+                }
+                if (buffer[scan + 1] == '*') {
+                    next = skipComment(scan);
+                    if (next == MORE) {
+                        return MORE;
+                    }
+                    scan = next;
+                    continue;
+                }
+            } else if (c == '"' || c == '\'') {
+                next = skipString(scan);
+                if (next == MORE) {
+                    return MORE;
+                }
+                if (next != UNTERMINATED) {
+                    scan = next;
+                    continue;
+                }
+            } else if (c == 'u' || c == 'U') {
+                next = skipDataUrl(scan);
+                if (next == MORE) {
+                    return MORE;
+                }
+                if (next >= 0) {
+                    scan = next;
+                    continue;
+                }
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                if (depth > 0) {
+                    depth--;
+                }
+                if (depth == 0 && !hack) {
+                    return ++scan;
+                }
+            }
+            scan++;
+        }
+        return MORE;
+    }
+
+    /*
+     * Skips the comment starting at index, and returns the index which
+     * follows it, or MORE. An unterminated comment runs to the end of the
+     * stylesheet.
+     */
+    private int skipComment(int index) {
+        for (int i = index + 2; i + 1 < end; i++) {
+            if (buffer[i] == '*' && buffer[i + 1] == '/') {
+                if (hack) {
+                    hack = false;
+                } else {
+                    hack = i > index + 2 && buffer[i - 1] == '\\';
+                }
+                return i + 2;
+            }
+        }
+        return eof ? end : MORE;
+    }
+
+    /*
+     * Skips the string starting at index, the same way CssCompressor
+     * matches ("([^\\"]|\\.|\\)*") once the comments are taken out, and
+     * returns the index which follows it, MORE or UNTERMINATED.
+     */
+    private int skipString(int index) {
+        char quote = buffer[index];
+        boolean savedHack = hack;
+        int i = index + 1;
+        while (i < end) {
+            char c = buffer[i];
+            if (c == '/' && i + 1 < end && buffer[i + 1] == '*') {
+                i = skipComment(i);
+                if (i == MORE) {
+                    hack = savedHack;
+                    return MORE;
+                }
+            } else if (c == '\\') {
+                i++;
+                if (i < end && !(buffer[i] == '/' && i + 1 < end && buffer[i + 1] == '*')) {
+                    i++;
+                }
+            } else if (c == quote) {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        hack = savedHack;
+        return eof ? UNTERMINATED : MORE;
+    }
+
+    /*
+     * Skips the data URL starting at index, if any, the same way
+     * CssCompressor preserves them, and returns the index which follows
+     * it, MORE or UNTERMINATED (also when there is no data URL.)
+     */
+    private int skipDataUrl(int index) {
+        int i = index;
+        if (!regionMatches(i, "url(")) {
+            return end - i < 4 && !eof ? MORE : UNTERMINATED;
+        }
+        i += 4;
+        while (i < end && " \t\n\u000B\f\r".indexOf(buffer[i]) >= 0) {
+            i++;
+        }
+        char terminator = ')';
+        if (i < end && (buffer[i] == '"' || buffer[i] == '\'')) {
+            terminator = buffer[i++];
+        }
+        if (end - i < 5 && !eof) {
+            return MORE;
+        }
+        if (!regionMatches(i, "data:")) {
+            return UNTERMINATED;
+        }
+        for (i += 5; i < end; i++) {
+            if (buffer[i] == terminator && buffer[i - 1] != '\\') {
+                while (i < end && buffer[i] != ')') {
+                    i++;
+                }
+                if (i < end) {
+                    return i + 1;
+                }
+                break;
+            }
+        }
+        return eof ? UNTERMINATED : MORE;
+    }
+
+    /*
+     * Returns true if the lower case string s is found at index, ignoring
+     * case.
+     */
+    private boolean regionMatches(int index, String s) {
+        if (end - index < s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.toLowerCase(buffer[index + i]) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
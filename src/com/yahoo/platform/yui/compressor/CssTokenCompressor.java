@@ -0,0 +1,1231 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Author: Julien Lecomte -  http://www.julienlecomte.net/
+ * Copyright (c) 2013 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * CssTokenCompressor is the engine used by CssCompressor when the tokenizer
+ * is enabled (see the --css-tokenizer option.) It applies the same rules as
+ * the regular expressions of CssCompressor, in the same order, but instead
+ * of running each of them over the whole stylesheet, it works in two
+ * linear passes:
+ *
+ * 1. A hand written tokenizer extracts the comments, strings, data URIs,
+ *    calc() expressions, IE matrix filters and \9 hacks, collapses the
+ *    white space and removes the spaces which are not needed. Each token
+ *    which must be preserved is replaced by a single TOKEN character in
+ *    the intermediate text.
+ * 2. The intermediate text is cut at each brace and semicolon, and each
+ *    segment (a selector, an at-rule or a declaration) is minified on its
+ *    own and written out, the preserved tokens being spliced back in.
+ */
+class CssTokenCompressor {
+
+    // Stands for a preserved token in the intermediate text.
+    private static final char TOKEN = '\uE000';
+    // Stands for a semicolon removed before a closing brace, which is still
+    // seen by the @charset rules.
+    private static final char SEMICOLON = '\uE001';
+
+    // Spaces are removed after these characters...
+    private static final String SPACE_AFTER = "!{}:;>+([,";
+    // ...and before these ones (except for the colons of pseudo-classes.)
+    private static final String SPACE_BEFORE = "!{};:>+()],";
+
+    private static final String MATRIX_FILTER = "progid:DXImageTransform.Microsoft.Matrix";
+    private static final String ALPHA_FILTER = "progid:dximagetransform.microsoft.alpha(opacity=";
+
+    private static final String[] VENDOR_PREFIXES = {
+        "-atsc-", "-khtml-", "-moz-", "-ms-", "-o-", "-wap-", "-webkit-"
+    };
+
+    private static final String[] DIRECTIVES = concat(new String[] {
+        "font-face", "import"
+    }, concat(prefixed(new String[] { "keyframe" }), new String[] {
+        "media", "page", "namespace"
+    }));
+
+    private static final String[] PSEUDO_CLASSES = {
+        "active", "after", "before", "checked", "disabled", "empty", "enabled",
+        "first-child", "first-of-type", "focus", "hover", "last-child",
+        "last-of-type", "link", "only-child", "only-of-type", "root",
+        ":selection", "target", "visited"
+    };
+
+    private static final String[] PSEUDO_FUNCTIONS = {
+        "lang", "not", "nth-child", "nth-last-child", "nth-last-of-type",
+        "nth-of-type", "-moz-any", "-webkit-any", "any"
+    };
+
+    private static final String[] VALUE_FUNCTIONS = concat(new String[] {
+        "attr", "color-stop", "from", "rgba", "to", "url"
+    }, concat(prefixed(new String[] {
+        "calc", "max", "min", "repeating-linear-gradient",
+        "repeating-radial-gradient", "linear-gradient", "radial-gradient"
+    }), new String[] {
+        "-webkit-gradient"
+    }));
+
+    private static final String[] LENGTH_UNITS = {
+        "px", "em", "in", "cm", "mm", "pc", "pt", "ex", "deg", "grad", "rad", "khz", "hz"
+    };
+
+    private static final String[] PERCENT_UNITS = { "%" };
+
+    private static final String[] GROUP_UNITS = {
+        "px", "em", "%", "in", "cm", "mm", "pc", "pt", "ex", "deg", "grad", "rad",
+        "ms", "s", "khz", "hz"
+    };
+
+    private static final String[] DECIMAL_UNITS = {
+        "px", "em", "%", "in", "cm", "mm", "pc", "pt", "ex", "deg", "ms", "s",
+        "grad", "rad", "khz", "hz", " "
+    };
+
+    private static final String[] ORIGIN_PROPERTIES = {
+        "background-position", "webkit-mask-position", "transform-origin",
+        "webkit-transform-origin", "moz-transform-origin", "o-transform-origin",
+        "ms-transform-origin"
+    };
+
+    private static final String[] NONE_PROPERTIES = {
+        "border", "border-top", "border-right", "border-bottom", "border-left",
+        "outline", "background"
+    };
+
+    private String src;
+
+    // Output of the tokenizer.
+    private StringBuffer css = new StringBuffer();
+    private ArrayList tokens = new ArrayList();
+    // Set at the positions preceded by a space which was removed because
+    // of the previous character. The rules which ran before those spaces
+    // were removed still see them.
+    private BitSet spaceDropped = new BitSet();
+
+    // State of the tokenizer.
+    private boolean space;
+    private boolean trailingSpace;
+    private boolean afterClosingBrace = true;
+    private ArrayList colonSpaces = new ArrayList();
+
+    // Output of the second pass, the tokens not being restored yet, and
+    // the indexes of the tokens it contains.
+    private StringBuffer result;
+    private int[] resultTokens;
+    private int resultTokenCount;
+    private int nextToken;
+
+    CssTokenCompressor(String src) {
+        this.src = src;
+    }
+
+    void compress(Writer out, int linebreakpos) throws IOException {
+        tokenize();
+        minify();
+        write(out, linebreakpos);
+    }
+
+    /*
+     * First pass: fills css and tokens.
+     */
+    private void tokenize() {
+
+        int length = src.length();
+        int i = 0;
+        // The last character which is not part of a removed comment.
+        char last = 0;
+        boolean afterHack = false;
+
+        while (i < length) {
+
+            char c = src.charAt(i);
+
+            if (c == '/' && i + 1 < length && src.charAt(i + 1) == '*') {
+                int end = src.indexOf("*/", i + 2);
+                String comment = end < 0 ? src.substring(i + 2) : src.substring(i + 2, end);
+                String kept = null;
+                if (afterHack) {
+                    // The comment following the Mac/IE5 hack becomes /**/
+                    kept = "";
+                    afterHack = false;
+                } else if (comment.startsWith("!")) {
+                    kept = comment;
+                } else if (comment.endsWith("\\")) {
+                    // \ in the last position looks like hack for Mac/IE5
+                    kept = "\\";
+                    afterHack = true;
+                } else if (comment.length() == 0 && last == '>') {
+                    // keep empty comments after child selectors (IE7 hack)
+                    kept = "";
+                }
+                if (kept != null) {
+                    append('/');
+                    append('*');
+                    appendToken(kept);
+                    if (end >= 0) {
+                        append('*');
+                        append('/');
+                    }
+                    last = '/';
+                }
+                i = end < 0 ? length : end + 2;
+                continue;
+            }
+
+            if (c == '"' || c == '\'') {
+                int end = findStringEnd(i);
+                if (end > 0) {
+                    String content = src.substring(i + 1, end);
+                    // The comments inside strings are left alone, but they
+                    // still count for the Mac/IE5 hack.
+                    int from = 0;
+                    while ((from = content.indexOf("/*", from)) >= 0) {
+                        int stop = content.indexOf("*/", from + 2);
+                        String comment = stop < 0 ? content.substring(from + 2) : content.substring(from + 2, stop);
+                        if (afterHack) {
+                            afterHack = false;
+                        } else if (!comment.startsWith("!") && comment.endsWith("\\")) {
+                            afterHack = true;
+                        }
+                        from = stop < 0 ? content.length() : stop + 2;
+                    }
+                    append(c);
+                    appendToken(replaceAlphaFilter(content));
+                    append(c);
+                    last = c;
+                    i = end + 1;
+                    continue;
+                }
+            }
+
+            if ((c == 'u' || c == 'U') && src.regionMatches(true, i, "url(", 0, 4)) {
+                int j = skipSpaces(i + 4);
+                char quote = quoteAt(j);
+                if (quote != 0) {
+                    j++;
+                }
+                if (src.regionMatches(true, j, "data:", 0, 5)) {
+                    int end = findTerminator(j + 5, quote);
+                    if (end > 0) {
+                        appendText("url(");
+                        appendToken(removeSpaces(src.substring(i + 4, end)));
+                        append(')');
+                        last = ')';
+                        i = end + 1;
+                        continue;
+                    }
+                }
+            }
+
+            if ((c == 'c' || c == 'C') && src.regionMatches(true, i, "calc(", 0, 5)) {
+                int j = skipSpaces(i + 5);
+                char quote = quoteAt(j);
+                int end = findTerminator(quote != 0 ? j + 1 : j, quote);
+                if (end > 0) {
+                    appendText("calc(");
+                    appendToken(src.substring(i + 5, end));
+                    append(')');
+                    last = ')';
+                    i = end + 1;
+                    continue;
+                }
+            }
+
+            if ((c == 'p' || c == 'P') && matches(src, i, MATRIX_FILTER)) {
+                int j = skipSpaces(i + MATRIX_FILTER.length());
+                char quote = quoteAt(j);
+                int end = findTerminator(quote != 0 ? j + 1 : j, quote);
+                int start = i + MATRIX_FILTER.length() + 1;
+                if (end >= start) {
+                    appendText(MATRIX_FILTER + "(");
+                    appendToken(src.substring(start, end));
+                    append(')');
+                    last = ')';
+                    i = end + 1;
+                    continue;
+                }
+            }
+
+            if (c == '\\' && i + 1 < length && src.charAt(i + 1) == '9') {
+                // preserve \9 IE hack
+                appendToken("\\9");
+                last = '9';
+                i += 2;
+                continue;
+            }
+
+            if (c == TOKEN) {
+                appendToken(String.valueOf(TOKEN));
+            } else if (isSpace(c)) {
+                space = true;
+            } else {
+                append(c, c == '!' && src.startsWith("important", i + 1));
+            }
+
+            last = c;
+            i++;
+        }
+
+        if (colonSpaces.size() > 0) {
+            // The colons following a closing brace are only protected
+            // when an opening brace comes later.
+            StringBuffer text = new StringBuffer(css.length());
+            BitSet dropped = new BitSet();
+            int next = 0;
+            for (int k = 0; k < css.length(); k++) {
+                if (next < colonSpaces.size() && ((Integer) colonSpaces.get(next)).intValue() == k) {
+                    next++;
+                    continue;
+                }
+                if (spaceDropped.get(k)) {
+                    dropped.set(text.length());
+                }
+                text.append(css.charAt(k));
+            }
+            css = text;
+            spaceDropped = dropped;
+        }
+
+        trailingSpace = space;
+    }
+
+    private void append(char c) {
+        append(c, false);
+    }
+
+    /*
+     * Appends a character to the intermediate text, along with the space
+     * preceding it if it is still needed.
+     */
+    private void append(char c, boolean important) {
+
+        int length = css.length();
+        if (length == 0 && space) {
+            // The leading white space is only trimmed at the end.
+            spaceDropped.set(0);
+        }
+        if (length > 0 && (space || important)) {
+            char prev = css.charAt(length - 1);
+            boolean dropAfter = SPACE_AFTER.indexOf(prev) >= 0;
+            // no space after the end of a preserved comment
+            boolean keep = !dropAfter &&
+                    !(prev == '/' && length > 1 && css.charAt(length - 2) == '*');
+            if (important) {
+                // Restore spaces for !important
+                if (keep) {
+                    css.append(' ');
+                }
+            } else if (c == ':' && afterClosingBrace || SPACE_BEFORE.indexOf(c) < 0) {
+                if (keep) {
+                    css.append(' ');
+                    if (c == ':') {
+                        colonSpaces.add(new Integer(length));
+                    }
+                } else if (dropAfter) {
+                    spaceDropped.set(length);
+                }
+            }
+        }
+        space = false;
+
+        if (c == '{') {
+            // Be careful not to turn "p :link {...}" into "p:link{...}"
+            afterClosingBrace = false;
+            colonSpaces.clear();
+        } else if (c == '}') {
+            afterClosingBrace = true;
+        }
+        css.append(c);
+    }
+
+    private void appendText(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            append(s.charAt(i));
+        }
+    }
+
+    private void appendToken(String token) {
+        append(TOKEN);
+        tokens.add(token);
+    }
+
+    /*
+     * Returns the index of the quote ending the string starting at start,
+     * or -1 if this is not a string.
+     */
+    private int findStringEnd(int start) {
+        char quote = src.charAt(start);
+        int length = src.length();
+        int i = start + 1;
+        while (i < length) {
+            char c = src.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        // Unterminated, but an escaped quote may end it.
+        int end = src.lastIndexOf(quote);
+        return end > start ? end : -1;
+    }
+
+    /*
+     * Returns the index of the closing parenthesis of a preserved token
+     * whose content starts at from, or -1 if there is none.
+     */
+    private int findTerminator(int from, char quote) {
+        char terminator = quote != 0 ? quote : ')';
+        int end = from - 1;
+        while (end + 1 < src.length()) {
+            end = src.indexOf(terminator, end + 1);
+            if (end <= 0) {
+                return -1;
+            }
+            if (src.charAt(end - 1) != '\\') {
+                return quote != 0 ? src.indexOf(')', end) : end;
+            }
+        }
+        return -1;
+    }
+
+    private int skipSpaces(int i) {
+        while (i < src.length() && isSpace(src.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private char quoteAt(int i) {
+        if (i < src.length()) {
+            char c = src.charAt(i);
+            if (c == '"' || c == '\'') {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /*
+     * Second pass: minifies each segment of css into result.
+     */
+    private void minify() {
+
+        int length = css.length();
+        result = new StringBuffer(length);
+        resultTokens = new int[tokens.size()];
+
+        StringBuffer segment = new StringBuffer();
+        int[] prelude = new int[16];
+        int depth = 0;
+        boolean emptyBlock = false;
+        int nextBrace = -1;
+        int start = 0;
+        char previous = 0;
+
+        for (int i = 0; i <= length; i++) {
+
+            char c = i < length ? css.charAt(i) : 0;
+            if (c != '{' && c != '}' && c != ';' && i < length) {
+                continue;
+            }
+
+            // Unnecessary semicolons are removed before the other rules run.
+            char next = c;
+            if (c == ';') {
+                int j = i + 1;
+                while (j < length && css.charAt(j) == ';') {
+                    j++;
+                }
+                if (j < length && css.charAt(j) == '}') {
+                    next = '}';
+                }
+            }
+
+            if (nextBrace < i) {
+                nextBrace = i;
+                while (nextBrace < length && css.charAt(nextBrace) != '{' && css.charAt(nextBrace) != '}') {
+                    nextBrace++;
+                }
+            }
+            boolean inBlock = nextBrace < length && css.charAt(nextBrace) == '}';
+
+            segment.setLength(0);
+            segment.append(css.substring(start, i));
+            minifySegment(segment, start, previous, next, inBlock);
+
+            int run = appendSegment(segment);
+            if (segment.length() > 0) {
+                emptyBlock = false;
+            }
+
+            if (c == '{') {
+                if (depth == prelude.length) {
+                    prelude = grow(prelude);
+                }
+                prelude[depth++] = run;
+                result.append('{');
+                emptyBlock = true;
+            } else if (c == '}') {
+                if (depth > 0 && prelude[--depth] >= 0 && emptyBlock) {
+                    // Remove empty rules.
+                    resultTokenCount -= countTokens(result, prelude[depth], result.length());
+                    result.setLength(prelude[depth]);
+                } else {
+                    result.append('}');
+                }
+                emptyBlock = false;
+            } else if (c == ';' && next == ';' && (result.length() == 0 || result.charAt(result.length() - 1) != ';')) {
+                result.append(';');
+            } else if (c == ';' && next == '}' && segment.length() > 0) {
+                result.append(SEMICOLON);
+            }
+
+            previous = c;
+            start = i + 1;
+        }
+    }
+
+    /*
+     * Applies the rules to a single segment. offset is the position of the
+     * segment in css, previous and next are the delimiters around it, and
+     * inBlock tells whether the next brace is a closing one.
+     */
+    private void minifySegment(StringBuffer s, int offset, char previous, char next, boolean inBlock) {
+
+        boolean atStart = offset == 0;
+        boolean declarationEnd = next == ';' || next == '}';
+
+        lowercaseKeywords(s, offset);
+
+        // retain space for special IE6 cases
+        for (int k = 0; k < s.length(); k++) {
+            if (s.charAt(k) == ':' && startsWith(s, k + 1, "first-")) {
+                int end = k + 7;
+                String name = startsWith(s, end, "line") ? "line" : startsWith(s, end, "letter") ? "letter" : null;
+                if (name != null) {
+                    end += name.length();
+                    if (end < s.length() ? s.charAt(end) == ',' : next == '{') {
+                        s.replace(k + 1, end, "first-" + name);
+                        s.insert(end, ' ');
+                        k = end;
+                    }
+                }
+            }
+        }
+
+        // Put the space back in some cases, to support stuff like
+        // @media screen and (-webkit-min-device-pixel-ratio:0){
+        for (int k = 0; k < s.length(); k++) {
+            if (startsWith(s, k, "and(") && (k == 0 || !isWordChar(s.charAt(k - 1)))) {
+                s.replace(k, k + 3, "and");
+                s.insert(k + 3, ' ');
+                k += 4;
+            }
+        }
+
+        // Replace 0(px,em) with 0, then 0% with 0 (but not in keyframes.)
+        collapseZeros(s, ':', " ", LENGTH_UNITS, atStart && !spaceDropped.get(0));
+        collapseZeros(s, ':', " ", PERCENT_UNITS, false);
+
+        // Replace the keyframe 100% step with 'to' which is shorter
+        if (next == '{' && endsWith(s, "100%")) {
+            int from = s.length() - 4;
+            if (from > 0 && s.charAt(from - 1) == ' ') {
+                from--;
+            }
+            if (from > 0 ? s.charAt(from - 1) == ',' : previous == '{' || atStart) {
+                s.replace(from, s.length(), "to");
+            }
+        }
+
+        // Replace 0(px,em,%) with 0 inside groups (e.g. -MOZ-RADIAL-GRADIENT(CENTER 45DEG, CIRCLE CLOSEST-SIDE, ORANGE 0%, RED 100%))
+        collapseZeros(s, '(', " ,", GROUP_UNITS, false);
+
+        // Replace x.0(px,em,%) with x(px,em,%).
+        for (int k = 0; k + 2 < s.length(); k++) {
+            if (isDigit(s.charAt(k)) && s.charAt(k + 1) == '.' && s.charAt(k + 2) == '0') {
+                if (k + 3 == s.length() ? next == ';' || next == 0 && trailingSpace : unitAt(s, k + 3, DECIMAL_UNITS, false) > 0) {
+                    s.delete(k + 1, k + 3);
+                }
+            }
+        }
+
+        if (declarationEnd) {
+            // Replace 0 0 0 0; with 0.
+            replaceSuffix(s, ":0 0 0 0", ":0");
+            replaceSuffix(s, ":0 0 0", ":0");
+            int length = s.length();
+            if (!(length >= 8 && s.substring(length - 8, length - 4).equals("flex"))) {
+                replaceSuffix(s, ":0 0", ":0");
+            }
+
+            // Replace background-position:0; with background-position:0 0;
+            // same for transform-origin
+            if (endsWith(s, ":0")) {
+                int name = findProperty(s, s.length() - 2, ORIGIN_PROPERTIES);
+                if (name >= 0) {
+                    s.replace(name, s.length(), s.substring(name, s.length()).toLowerCase() + " 0");
+                }
+            }
+        }
+
+        // Replace 0.6 to .6, but only when preceded by : or a white-space
+        for (int k = atStart && spaceDropped.get(0) ? -1 : 0; k < s.length(); k++) {
+            if (k < 0 || s.charAt(k) == ':' || s.charAt(k) == ' ') {
+                int z = k + 1;
+                while (z < s.length() && s.charAt(z) == '0') {
+                    z++;
+                }
+                if (z > k + 1 && z + 1 < s.length() && s.charAt(z) == '.' && isDigit(s.charAt(z + 1))) {
+                    s.delete(k + 1, z);
+                }
+            }
+        }
+
+        shortenColorFunctions(s);
+        shortenRgbColors(s);
+        shortenHexColors(s, next, inBlock);
+
+        if (declarationEnd) {
+            // Replace #f00 -> red, and other short color keywords
+            for (int i = 0; i < CssColors.KEYWORDS.length; i++) {
+                String hex = CssColors.KEYWORDS[i][0];
+                int from = s.length() - hex.length();
+                boolean separated = from > 0 ? s.charAt(from - 1) == ':' || s.charAt(from - 1) == ' ' :
+                        from == 0 && atStart && spaceDropped.get(0);
+                if (separated && endsWith(s, hex)) {
+                    s.replace(from, s.length(), CssColors.KEYWORDS[i][1]);
+                }
+            }
+
+            // border: none -> border:0
+            if (s.length() >= 5 && startsWith(s, s.length() - 5, ":none")) {
+                int name = findProperty(s, s.length() - 5, NONE_PROPERTIES);
+                if (name >= 0) {
+                    s.replace(name, s.length(), s.substring(name, s.length() - 5).toLowerCase() + ":0");
+                }
+            }
+        }
+
+        // shorter opacity IE filter
+        replaceAlphaFilter(s);
+    }
+
+    /*
+     * Lowercases some popular @directives, pseudo-classes, pseudo-elements
+     * and functions.
+     */
+    private void lowercaseKeywords(StringBuffer s, int offset) {
+        for (int k = 0; k < s.length(); k++) {
+            char c = s.charAt(k);
+            int found;
+            if (c == '@' && (found = matchAny(s, k + 1, DIRECTIVES)) >= 0) {
+                k = replaceKeyword(s, k + 1, DIRECTIVES[found]);
+            } else if (c == ':' && !spaceDropped.get(offset + k + 1)) {
+                if ((found = matchAny(s, k + 1, PSEUDO_CLASSES)) >= 0) {
+                    k = replaceKeyword(s, k + 1, PSEUDO_CLASSES[found]);
+                }
+            }
+        }
+        for (int k = 0; k < s.length(); k++) {
+            if (s.charAt(k) == ':' && !spaceDropped.get(offset + k + 1)) {
+                for (int i = 0; i < PSEUDO_FUNCTIONS.length; i++) {
+                    String name = PSEUDO_FUNCTIONS[i];
+                    int end = k + 1 + name.length();
+                    if (end < s.length() && s.charAt(end) == '(' && startsWith(s, k + 1, name)) {
+                        k = replaceKeyword(s, k + 1, name);
+                        break;
+                    }
+                }
+            }
+        }
+        for (int k = 0; k < s.length(); k++) {
+            if (k > 0 && ":,( ".indexOf(s.charAt(k - 1)) >= 0 || spaceDropped.get(offset + k)) {
+                int found = matchAny(s, k, VALUE_FUNCTIONS);
+                if (found >= 0) {
+                    k = replaceKeyword(s, k, VALUE_FUNCTIONS[found]);
+                }
+            }
+        }
+    }
+
+    private static int replaceKeyword(StringBuffer s, int start, String keyword) {
+        s.replace(start, start + keyword.length(), keyword);
+        return start + keyword.length() - 1;
+    }
+
+    /*
+     * Replaces the zero values followed by one of the units in the chains
+     * of words separated by one of the separators and following the
+     * trigger character (or the start of the stylesheet.)
+     */
+    private static void collapseZeros(StringBuffer s, char trigger, String separators, String[] units,
+            boolean atStart) {
+        if (atStart) {
+            collapseZeroChain(s, 0, separators, units);
+        }
+        for (int k = 0; k < s.length(); k++) {
+            if (s.charAt(k) == trigger) {
+                collapseZeroChain(s, k + 1, separators, units);
+            }
+        }
+    }
+
+    private static void collapseZeroChain(StringBuffer s, int k, String separators, String[] units) {
+        while (k < s.length()) {
+            while (collapseZero(s, k, units)) {
+                // The remaining of the word may start with another zero.
+            }
+            int end = k;
+            while (end < s.length() && isWordPart(s.charAt(end))) {
+                end++;
+            }
+            if (end == k || end == s.length() || separators.indexOf(s.charAt(end)) < 0) {
+                return;
+            }
+            k = end + 1;
+        }
+    }
+
+    /*
+     * Replaces a zero value (0, 0.0 or .0) followed by a unit at position k
+     * with a single 0.
+     */
+    private static boolean collapseZero(StringBuffer s, int k, String[] units) {
+        int length = s.length();
+        int zero = -1;
+        int unit = 0;
+        if (k + 2 < length && s.charAt(k) == '0' && s.charAt(k + 1) == '.' && s.charAt(k + 2) == '0') {
+            unit = unitAt(s, k + 3, units, true);
+            zero = k + 2;
+        }
+        if (unit == 0 && k + 1 < length && s.charAt(k) == '.' && s.charAt(k + 1) == '0') {
+            unit = unitAt(s, k + 2, units, true);
+            zero = k + 1;
+        }
+        if (unit == 0 && k < length && s.charAt(k) == '0') {
+            unit = unitAt(s, k + 1, units, true);
+            zero = k;
+        }
+        if (unit == 0) {
+            return false;
+        }
+        s.replace(k, zero + 1 + unit, "0");
+        return true;
+    }
+
+    /*
+     * Returns the length of the first unit found at position k, or 0.
+     */
+    private static int unitAt(StringBuffer s, int k, String[] units, boolean ignoreCase) {
+        for (int i = 0; i < units.length; i++) {
+            String unit = units[i];
+            if (ignoreCase ? startsWith(s, k, unit) : startsWithExactly(s, k, unit)) {
+                return unit.length();
+            }
+        }
+        return 0;
+    }
+
+    /*
+     * Returns the position of the leftmost of the properties ending at
+     * position end, or -1.
+     */
+    private static int findProperty(StringBuffer s, int end, String[] properties) {
+        for (int start = 0; start < end; start++) {
+            for (int i = 0; i < properties.length; i++) {
+                if (end - start == properties[i].length() && startsWith(s, start, properties[i])) {
+                    return start;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Shortens the opaque rgba(), hsl() and hsla() colors (see
+     * CssColors.shorten.) Scans backwards, so that a color which was
+     * replaced is not taken for a word preceding the next one.
+     */
+    private static void shortenColorFunctions(StringBuffer s) {
+        for (int k = s.length() - 4; k >= 0; k--) {
+            int open = startsWithExactly(s, k, "rgba(") || startsWithExactly(s, k, "hsla(") ? k + 5 :
+                    startsWithExactly(s, k, "hsl(") ? k + 4 : -1;
+            if (open < 0 || k > 0 && isWordPart(s.charAt(k - 1))) {
+                continue;
+            }
+            int end = open;
+            while (end < s.length() && (isWordPart(s.charAt(end)) || s.charAt(end) == ',' || s.charAt(end) == '%')) {
+                end++;
+            }
+            if (end == s.length() || s.charAt(end) != ')') {
+                continue;
+            }
+            String color = CssColors.shorten(s.substring(k, open - 1), s.substring(open, end));
+            if (color != null) {
+                s.replace(k, end + 1, color);
+            }
+        }
+    }
+
+    /*
+     * Shortens colors from rgb(51,102,153) to #336699.
+     */
+    private static void shortenRgbColors(StringBuffer s) {
+        for (int k = 0; (k = s.indexOf("rgb(", k)) >= 0; k++) {
+            int end = k + 4;
+            while (end < s.length() && (isDigit(s.charAt(end)) || s.charAt(end) == ',' || s.charAt(end) == ' ')) {
+                end++;
+            }
+            if (end == k + 4 || end == s.length() || s.charAt(end) != ')') {
+                continue;
+            }
+
+            ArrayList values = new ArrayList();
+            int from = k + 4;
+            for (int i = from; i <= end; i++) {
+                if (i == end || s.charAt(i) == ',') {
+                    values.add(s.substring(from, i));
+                    from = i + 1;
+                }
+            }
+            // Same as String.split: trailing empty values are dropped.
+            while (values.size() > 0 && ((String) values.get(values.size() - 1)).length() == 0) {
+                values.remove(values.size() - 1);
+            }
+
+            StringBuffer hexcolor = new StringBuffer("#");
+            try {
+                for (int i = 0; i < values.size(); i++) {
+                    int val = Integer.parseInt((String) values.get(i));
+                    if (val < 16) {
+                        hexcolor.append("0");
+                    }
+                    // If someone passes an RGB value that's too big to express in two characters, round down.
+                    if (val > 255) {
+                        val = 255;
+                    }
+                    hexcolor.append(Integer.toHexString(val));
+                }
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            s.replace(k, end + 1, hexcolor.toString());
+        }
+    }
+
+    /*
+     * Shortens colors from #AABBCC to #ABC, but only inside a block, and
+     * not in filters such as chroma(color="#FFFFFF"), which IE would break.
+     */
+    private static void shortenHexColors(StringBuffer s, char next, boolean inBlock) {
+        for (int k = 0; k + 6 < s.length(); k++) {
+            if (s.charAt(k) != '#') {
+                continue;
+            }
+            boolean hex = true;
+            for (int i = k + 1; i <= k + 6; i++) {
+                hex = hex && isHexDigit(s.charAt(i));
+            }
+            if (!hex) {
+                continue;
+            }
+            if (k + 7 < s.length() ? isHexDigit(s.charAt(k + 7)) || !inBlock : !(next == '}' || next == ';' && inBlock)) {
+                continue;
+            }
+
+            int j = k - 1;
+            if (j >= 0 && (s.charAt(j) == '"' || s.charAt(j) == '\'')) {
+                j--;
+            }
+            while (j >= 0 && s.charAt(j) == ' ') {
+                j--;
+            }
+            if (j < 0 || s.charAt(j) != '=') {
+                String color = s.substring(k + 1, k + 7).toLowerCase();
+                if (color.charAt(0) == color.charAt(1) && color.charAt(2) == color.charAt(3) &&
+                        color.charAt(4) == color.charAt(5)) {
+                    color = "" + color.charAt(1) + color.charAt(3) + color.charAt(5);
+                }
+                s.replace(k + 1, k + 7, color);
+                k += color.length();
+            } else {
+                k += 6;
+            }
+        }
+    }
+
+    private static void replaceAlphaFilter(StringBuffer s) {
+        for (int k = 0; k + ALPHA_FILTER.length() <= s.length(); k++) {
+            char c = s.charAt(k);
+            if ((c == 'p' || c == 'P') && matches(s, k, ALPHA_FILTER)) {
+                s.replace(k, k + ALPHA_FILTER.length(), "alpha(opacity=");
+            }
+        }
+    }
+
+    private static String replaceAlphaFilter(String s) {
+        if (s.length() < ALPHA_FILTER.length()) {
+            return s;
+        }
+        StringBuffer sb = new StringBuffer(s);
+        replaceAlphaFilter(sb);
+        return sb.toString();
+    }
+
+    /*
+     * Appends a minified segment to the result. Returns the position in the result where the rule would
+     * start if it were removed for being empty, or -1.
+     */
+    private int appendSegment(StringBuffer s) {
+
+        // Removed empty rules start after the last slash, except the one of
+        // Opera's -o-device-pixel-ratio query.
+        int run = 0;
+        for (int k = s.length() - 1; k >= 0; k--) {
+            if (s.charAt(k) == '/' && !isQueryFraction(s, k)) {
+                run = k + 1;
+                break;
+            }
+        }
+
+        if (run < s.length()) {
+            run += result.length();
+        } else {
+            run = -1;
+        }
+        for (int k = 0; k < s.length(); k++) {
+            if (s.charAt(k) == TOKEN) {
+                resultTokens[resultTokenCount++] = nextToken++;
+            }
+        }
+        result.append(s);
+        return run;
+    }
+
+    /*
+     * Add spaces back in between operators for css calc function
+     * https://developer.mozilla.org/en-US/docs/Web/CSS/calc
+     */
+    private static String spaceCalcOperators(String css) {
+        StringBuffer sb = null;
+        int appendIndex = 0;
+        int start = 0;
+        while ((start = css.indexOf("calc(", start)) >= 0) {
+            int end = css.indexOf(')', start);
+            if (end < 0) {
+                break;
+            }
+            if (sb == null) {
+                sb = new StringBuffer(css.length() + 16);
+            }
+            sb.append(css, appendIndex, start + 5);
+            String s = css.substring(start + 5, end);
+            String operators = "+-*/";
+            for (int i = 0; i < operators.length(); i++) {
+                s = spaceOperator(s, operators.charAt(i));
+            }
+            sb.append(s);
+            appendIndex = start = end;
+        }
+        if (sb == null) {
+            return css;
+        }
+        sb.append(css, appendIndex, css.length());
+        return sb.toString();
+    }
+
+    private static String spaceOperator(String s, char operator) {
+        if (s.indexOf(operator) < 0) {
+            return s;
+        }
+        StringBuffer sb = new StringBuffer(s.length() + 8);
+        for (int k = 0; k < s.length(); k++) {
+            char c = s.charAt(k);
+            if (c == operator && k > 0 && (isDigit(s.charAt(k - 1)) || "-|%pxemrvw".indexOf(s.charAt(k - 1)) >= 0)) {
+                sb.append(' ').append(c).append(' ');
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /*
+     * Moves the last @charset to the top, drops the ones following it,
+     * restores the preserved tokens, inserts the line breaks and writes the
+     * result.
+     */
+    private void write(Writer out, int linebreakpos) throws IOException {
+
+        // If there are multiple @charset directives, push the last one
+        // to the top of the file...
+        int[] ranges = { 0, result.length() };
+        for (int k = result.length() - 10; k >= 0; k--) {
+            if (result.charAt(k) == '@' && startsWith(result, k, "@charset \"")) {
+                int end = result.indexOf("\"", k + 10) + 1;
+                if (end > 0 && end < result.length() && (result.charAt(end) == ';' || result.charAt(end) == SEMICOLON)) {
+                    ranges = new int[] { k, end + 1, 0, k, end + 1, result.length() };
+                    break;
+                }
+            }
+        }
+
+        // The tokens are restored in the order in which they were found.
+        StringBuffer text = new StringBuffer(result.length());
+        int[] order = new int[tokens.size()];
+        int count = 0;
+        for (int r = 0; r < ranges.length; r += 2) {
+            int token = countTokens(result, 0, ranges[r]);
+            for (int k = ranges[r]; k < ranges[r + 1]; k++) {
+                char c = result.charAt(k);
+                if (c == TOKEN) {
+                    order[count++] = resultTokens[token++];
+                }
+                text.append(c);
+            }
+        }
+
+        // ...and only keep the last one of those at the top.
+        int start = 0;
+        int charset = -1;
+        while (startsWith(text, start, "@charset ")) {
+            int end = start + 9;
+            while (end < text.length() && text.charAt(end) != ';' && text.charAt(end) != SEMICOLON) {
+                end++;
+            }
+            if (end == start + 9 || end == text.length()) {
+                break;
+            }
+            charset = start;
+            start = end + 1;
+        }
+        if (charset >= 0) {
+            start = charset;
+            text.replace(start, start + 8, "@charset");
+        }
+
+        StringBuffer sb = new StringBuffer(text.length() - start + src.length() / 4);
+        int next = countTokens(text, 0, start);
+        int linestartpos = 0;
+        for (int k = start; k < text.length(); k++) {
+            char c = text.charAt(k);
+            if (c == TOKEN) {
+                sb.append((String) tokens.get(order[next++]));
+            } else if (c == ';' || c == SEMICOLON) {
+                // Moving the @charset may have changed what follows.
+                int end = k + 1;
+                while (end < text.length() && (text.charAt(end) == ';' || text.charAt(end) == SEMICOLON)) {
+                    end++;
+                }
+                if (end == text.length() || text.charAt(end) != '}') {
+                    sb.append(';');
+                }
+                k = end - 1;
+            } else {
+                sb.append(c);
+            }
+            // Some source control tools don't like it when files containing lines longer
+            // than, say 8000 characters, are checked in. The linebreak option is used in
+            // that case to split long lines after a specific column.
+            if (c == '}' && linebreakpos >= 0 && sb.length() - linestartpos > linebreakpos) {
+                linestartpos = sb.length();
+                sb.append('\n');
+            }
+        }
+
+        // Trim the final string (for any leading or trailing white spaces)
+        out.write(spaceCalcOperators(sb.toString()).trim());
+    }
+
+    private static int countTokens(StringBuffer s, int start, int end) {
+        int count = 0;
+        for (int k = start; k < end; k++) {
+            if (s.charAt(k) == TOKEN) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isQueryFraction(StringBuffer s, int k) {
+        // (-o-min-device-pixel-ratio:10/4)
+        int end = k + 1;
+        while (end < s.length() && isDigit(s.charAt(end))) {
+            end++;
+        }
+        if (end == k + 1 || end == s.length() || s.charAt(end) != ')') {
+            return false;
+        }
+        int start = k - 1;
+        while (start >= 0 && isDigit(s.charAt(start))) {
+            start--;
+        }
+        if (start == k - 1 || start < 0 || s.charAt(start) != ':') {
+            return false;
+        }
+        int name = start - 1;
+        while (name >= 0 && (isLetter(s.charAt(name)) || s.charAt(name) == '-')) {
+            name--;
+        }
+        return name < start - 1 && name >= 0 && s.charAt(name) == '(';
+    }
+
+    /*
+     * Returns the index of the first keyword found at position k, ignoring
+     * the case, or -1.
+     */
+    private static int matchAny(StringBuffer s, int k, String[] keywords) {
+        for (int i = 0; i < keywords.length; i++) {
+            if (startsWith(s, k, keywords[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Compares ignoring the (ASCII) case. The prefix must be in lower case.
+     */
+    private static boolean startsWith(StringBuffer s, int k, String prefix) {
+        if (k < 0 || k + prefix.length() > s.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = s.charAt(k + i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            if (c != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWithExactly(StringBuffer s, int k, String prefix) {
+        if (k < 0 || k + prefix.length() > s.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (s.charAt(k + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean endsWith(StringBuffer s, String suffix) {
+        return startsWithExactly(s, s.length() - suffix.length(), suffix);
+    }
+
+    private static void replaceSuffix(StringBuffer s, String suffix, String replacement) {
+        if (s.length() >= suffix.length() && endsWith(s, suffix)) {
+            s.replace(s.length() - suffix.length(), s.length(), replacement);
+        }
+    }
+
+    /*
+     * Compares ignoring the (ASCII) case, a dot in the pattern matching any
+     * character but a line terminator. The pattern must be in lower case.
+     */
+    private static boolean matches(CharSequence s, int k, String pattern) {
+        if (k + pattern.length() > s.length()) {
+            return false;
+        }
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = s.charAt(k + i);
+            char p = Character.toLowerCase(pattern.charAt(i));
+            if (p == '.') {
+                if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                    return false;
+                }
+            } else {
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+                if (c != p) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static String removeSpaces(String s) {
+        StringBuffer sb = new StringBuffer(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!isSpace(c)) {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLetter(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isHexDigit(char c) {
+        return isDigit(c) || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F';
+    }
+
+    // The characters of the words of a value, e.g. "no-repeat" or "1.5em".
+    private static boolean isWordPart(char c) {
+        return isDigit(c) || isLetter(c) || c == '-' || c == '.';
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == TOKEN;
+    }
+
+    private static String[] prefixed(String[] names) {
+        String[] result = new String[names.length * (VENDOR_PREFIXES.length + 1)];
+        int i = 0;
+        for (int j = 0; j < VENDOR_PREFIXES.length; j++) {
+            for (int k = 0; k < names.length; k++) {
+                result[i++] = VENDOR_PREFIXES[j] + names[k];
+            }
+        }
+        for (int k = 0; k < names.length; k++) {
+            result[i++] = names[k];
+        }
+        return result;
+    }
+
+    private static String[] concat(String[] a, String[] b) {
+        String[] result = new String[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static int[] grow(int[] array) {
+        int[] result = new int[array.length * 2];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+}
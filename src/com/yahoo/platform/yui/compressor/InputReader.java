@@ -0,0 +1,82 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Author: Julien Lecomte -  http://www.julienlecomte.net/
+ * Copyright (c) 2011 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * InputReader reads the whole input of the compressors in large blocks,
+ * instead of one character at a time. Files are read into a buffer sized
+ * after their length, and decoded in one go.
+ */
+class InputReader {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    /*
+     * Reads all the bytes of the stream. size is the expected number of
+     * bytes (e.g. the length of the file), or -1 if it is unknown.
+     */
+    static byte[] readBytes(InputStream in, long size) throws IOException {
+
+        if (size < 0 || size >= Integer.MAX_VALUE) {
+            return readRemaining(in, new ByteArrayOutputStream(BUFFER_SIZE));
+        }
+
+        byte[] bytes = new byte[(int) size];
+        int length = 0;
+        int n;
+        while (length < bytes.length && (n = in.read(bytes, length, bytes.length - length)) != -1) {
+            length += n;
+        }
+
+        if (length < bytes.length) {
+            // The file was truncated in the meantime.
+            byte[] result = new byte[length];
+            System.arraycopy(bytes, 0, result, 0, length);
+            return result;
+        }
+
+        // Make sure the file did not grow in the meantime.
+        int c = in.read();
+        if (c == -1) {
+            return bytes;
+        }
+        ByteArrayOutputStream result = new ByteArrayOutputStream(Math.max(length * 2, BUFFER_SIZE));
+        result.write(bytes, 0, length);
+        result.write(c);
+        return readRemaining(in, result);
+    }
+
+    private static byte[] readRemaining(InputStream in, ByteArrayOutputStream result)
+            throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            result.write(buffer, 0, n);
+        }
+        return result.toByteArray();
+    }
+
+    /*
+     * Reads all the characters of the reader.
+     */
+    static String readString(Reader in) throws IOException {
+        StringBuffer result = new StringBuffer();
+        char[] buffer = new char[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            result.append(buffer, 0, n);
+        }
+        return result.toString();
+    }
+}
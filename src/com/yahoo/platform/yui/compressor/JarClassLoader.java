@@ -9,10 +9,10 @@
 package com.yahoo.platform.yui.compressor;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Enumeration;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -20,7 +20,19 @@ public class JarClassLoader extends ClassLoader {
 
     private static String jarPath;
 
-    public Class loadClass(String name) throws ClassNotFoundException {
+    // The jar is opened only once, and left open for the lifetime
+    // of the class loader.
+    private JarFile jarFile;
+    private boolean jarFileOpened;
+
+    private int loadedClassCount;
+    private long loadingTime;
+    // defineClass loads the superclass and interfaces of a class through
+    // loadClass, so findClass calls can be nested. Only the outermost one
+    // is timed, otherwise the nested loads would be counted twice.
+    private int loadingDepth;
+
+    public synchronized Class loadClass(String name) throws ClassNotFoundException {
 
         // First check if the class is already loaded
         Class c = findLoadedClass(name);
@@ -35,6 +47,20 @@ public class JarClassLoader extends ClassLoader {
         return c;
     }
 
+    /*
+     * Returns the number of classes this class loader has defined.
+     */
+    synchronized int getLoadedClassCount() {
+        return loadedClassCount;
+    }
+
+    /*
+     * Returns the time spent reading and defining classes, in milliseconds.
+     */
+    synchronized long getLoadingTime() {
+        return loadingTime / 1000000;
+    }
+
     private static String getJarPath() {
 
         if (jarPath != null) {
@@ -53,7 +79,7 @@ public class JarClassLoader extends ClassLoader {
 
             try {
                 jarFile = new JarFile(path);
-                jarEntry = findJarEntry(jarFile, classname);
+                jarEntry = jarFile.getJarEntry(classname);
             } catch (IOException ioe) {
                 /* ignore */
             } finally {
@@ -75,39 +101,40 @@ public class JarClassLoader extends ClassLoader {
         return jarPath;
     }
 
-    private static JarEntry findJarEntry(JarFile jarFile, String entryName) {
-
-        Enumeration entries = jarFile.entries();
+    private JarFile getJarFile() {
 
-        while (entries.hasMoreElements()) {
-            JarEntry entry = (JarEntry) entries.nextElement();
-            if (entry.getName().equals(entryName)) {
-                return entry;
+        if (!jarFileOpened) {
+            jarFileOpened = true;
+            String jarPath = getJarPath();
+            if (jarPath != null) {
+                try {
+                    jarFile = new JarFile(jarPath);
+                } catch (IOException ioe) {
+                    /* ignore */
+                }
             }
         }
 
-        return null;
+        return jarFile;
     }
 
     protected Class findClass(String name) {
 
         Class c = null;
-        String jarPath = getJarPath();
+        JarFile jarFile = getJarFile();
 
-        if (jarPath != null) {
-            JarFile jarFile = null;
+        if (jarFile != null) {
+            long start = System.nanoTime();
+            loadingDepth++;
             try {
-                jarFile = new JarFile(jarPath);
                 c = loadClassData(jarFile, name);
-            } catch (IOException ioe) {
-                /* ignore */
             } finally {
-                if (jarFile != null) {
-                    try {
-                        jarFile.close();
-                    } catch (IOException ioe) {
-                        /* ignore */
-                    }
+                loadingDepth--;
+            }
+            if (c != null) {
+                loadedClassCount++;
+                if (loadingDepth == 0) {
+                    loadingTime += System.nanoTime() - start;
                 }
             }
         }
@@ -118,7 +145,7 @@ public class JarClassLoader extends ClassLoader {
     private Class loadClassData(JarFile jarFile, String className) {
 
         String entryName = className.replace('.', '/') + ".class";
-        JarEntry jarEntry = findJarEntry(jarFile, entryName);
+        JarEntry jarEntry = jarFile.getJarEntry(entryName);
         if (jarEntry == null) {
             return null;
         }
@@ -137,9 +164,7 @@ public class JarClassLoader extends ClassLoader {
         InputStream is = null;
         try {
             is = jarFile.getInputStream(jarEntry);
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            copy(is, os);
-            byte[] bytes = os.toByteArray();
+            byte[] bytes = read(is, jarEntry.getSize());
             c = defineClass(className, bytes, 0, bytes.length);
         } catch (IOException ioe) {
             /* ignore */
@@ -152,8 +177,32 @@ public class JarClassLoader extends ClassLoader {
         return c;
     }
 
+    /*
+     * Reads the content of a jar entry. size is the uncompressed size of
+     * the entry, or -1 if unknown.
+     */
+    private byte[] read(InputStream in, long size) throws IOException {
+
+        if (size < 0 || size > Integer.MAX_VALUE) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            copy(in, os);
+            return os.toByteArray();
+        }
+
+        byte[] bytes = new byte[(int) size];
+        int offset = 0;
+        while (offset < bytes.length) {
+            int len = in.read(bytes, offset, bytes.length - offset);
+            if (len < 0) {
+                throw new EOFException();
+            }
+            offset += len;
+        }
+        return bytes;
+    }
+
     private void copy(InputStream in, OutputStream out) throws IOException {
-        byte[] buf = new byte[1024];
+        byte[] buf = new byte[8192];
         while (true) {
             int len = in.read(buf);
             if (len < 0) break;
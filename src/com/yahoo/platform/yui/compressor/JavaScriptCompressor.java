@@ -19,10 +19,6 @@ import java.util.regex.Pattern;
 
 public class JavaScriptCompressor {
 
-    static final ArrayList ones;
-    static final ArrayList twos;
-    static final ArrayList threes;
-
     static final Set builtin = new HashSet();
     static final Map literals = new HashMap();
     static final Set reserved = new HashSet();
@@ -35,54 +31,6 @@ public class JavaScriptCompressor {
         builtin.add("NaN");
         builtin.add("top");
 
-        ones = new ArrayList();
-        for (char c = 'a'; c <= 'z'; c++)
-            ones.add(Character.toString(c));
-        for (char c = 'A'; c <= 'Z'; c++)
-            ones.add(Character.toString(c));
-
-        twos = new ArrayList();
-        for (int i = 0; i < ones.size(); i++) {
-            String one = (String) ones.get(i);
-            for (char c = 'a'; c <= 'z'; c++)
-                twos.add(one + Character.toString(c));
-            for (char c = 'A'; c <= 'Z'; c++)
-                twos.add(one + Character.toString(c));
-            for (char c = '0'; c <= '9'; c++)
-                twos.add(one + Character.toString(c));
-        }
-
-        threes = new ArrayList();
-        for (int i = 0; i < twos.size(); i++) {
-            String two = (String) twos.get(i);
-            for (char c = 'a'; c <= 'z'; c++)
-                threes.add(two + Character.toString(c));
-            for (char c = 'A'; c <= 'Z'; c++)
-                threes.add(two + Character.toString(c));
-            for (char c = '0'; c <= '9'; c++)
-                threes.add(two + Character.toString(c));
-        }
-
-        // Remove two-letter JavaScript reserved words and built-in globals...
-        twos.remove("as");
-        twos.remove("is");
-        twos.remove("do");
-        twos.remove("if");
-        twos.remove("in");
-        twos.removeAll(builtin);
-
-        // Remove three-letter JavaScript reserved words and built-in globals...
-        threes.remove("for");
-        threes.remove("int");
-        threes.remove("new");
-        threes.remove("try");
-        threes.remove("use");
-        threes.remove("var");
-        threes.removeAll(builtin);
-
-        // That's up to ((26+26)*(1+(26+26+10)))*(1+(26+26+10))-8
-        // (206,380 symbols per scope)
-
         // The following list comes from org/mozilla/javascript/Decompiler.java...
         literals.put(new Integer(Token.GET), "get ");
         literals.put(new Integer(Token.SET), "set ");
@@ -258,176 +206,65 @@ public class JavaScriptCompressor {
         return count;
     }
 
-    private static int printSourceString(String source, int offset, StringBuffer sb) {
-        int length = source.charAt(offset);
-        ++offset;
-        if ((0x8000 & length) != 0) {
-            length = ((0x7FFF & length) << 16) | source.charAt(offset);
-            ++offset;
-        }
-        if (sb != null) {
-            String str = source.substring(offset, offset + length);
-            sb.append(str);
-        }
-        return offset + length;
-    }
-
-    private static int printSourceNumber(String source,
-            int offset, StringBuffer sb) {
-        double number = 0.0;
-        char type = source.charAt(offset);
-        ++offset;
-        if (type == 'S') {
-            if (sb != null) {
-                number = source.charAt(offset);
-            }
-            ++offset;
-        } else if (type == 'J' || type == 'D') {
-            if (sb != null) {
-                long lbits;
-                lbits = (long) source.charAt(offset) << 48;
-                lbits |= (long) source.charAt(offset + 1) << 32;
-                lbits |= (long) source.charAt(offset + 2) << 16;
-                lbits |= (long) source.charAt(offset + 3);
-                if (type == 'J') {
-                    number = lbits;
-                } else {
-                    number = Double.longBitsToDouble(lbits);
-                }
-            }
-            offset += 4;
-        } else {
-            // Bad source
-            throw new RuntimeException();
-        }
-        if (sb != null) {
-            sb.append(ScriptRuntime.numberToString(number, 10));
-        }
-        return offset;
-    }
-
-    private static ArrayList parse(Reader in, ErrorReporter reporter)
+    private static JavaScriptTokenBuffer parse(Reader in, ErrorReporter reporter)
             throws IOException, EvaluatorException {
 
         CompilerEnvirons env = new CompilerEnvirons();
         env.setLanguageVersion(Context.VERSION_1_7);
         Parser parser = new Parser(env, reporter);
-        parser.parse(in, null, 1);
-        String source = parser.getEncodedSource();
-
-        int offset = 0;
-        int length = (source != null) ? source.length() : 0;
-        ArrayList tokens = new ArrayList();
-        StringBuffer sb = new StringBuffer();
-
-        while (offset < length) {
-            int tt = source.charAt(offset++);
-            switch (tt) {
-
-                case Token.CONDCOMMENT:
-                case Token.KEEPCOMMENT:
-                case Token.NAME:
-                case Token.REGEXP:
-                case Token.STRING:
-                    sb.setLength(0);
-                    offset = printSourceString(source, offset, sb);
-                    tokens.add(new JavaScriptToken(tt, sb.toString()));
-                    break;
-
-                case Token.NUMBER:
-                    sb.setLength(0);
-                    offset = printSourceNumber(source, offset, sb);
-                    tokens.add(new JavaScriptToken(tt, sb.toString()));
-                    break;
-
-                default:
-                    String literal = (String) literals.get(new Integer(tt));
-                    if (literal != null) {
-                        tokens.add(new JavaScriptToken(tt, literal));
+        // We only need the tokens collected for the decompiler, not the
+        // parse tree. The tokens are added to the buffer as they are parsed.
+        final JavaScriptTokenBuffer tokens = new JavaScriptTokenBuffer();
+        parser.setSourceOnly(true);
+        parser.setTokenSink(new Decompiler.TokenSink() {
+            public void addToken(int tt, String value) {
+                if (value == null) {
+                    value = (String) literals.get(new Integer(tt));
+                    if (value == null) {
+                        return;
                     }
-                    break;
+                }
+                tokens.add(tt, value);
             }
-        }
+        });
+        // The whole source is read at once, rather than in small blocks.
+        parser.parse(InputReader.readString(in), null, 1);
 
         return tokens;
     }
 
-    private static void processStringLiterals(ArrayList tokens, boolean merge) {
-
-        String tv;
-        int i, length = tokens.size();
-        JavaScriptToken token, prevToken, nextToken;
-
-        if (merge) {
-
-            // Concatenate string literals that are being appended wherever
-            // it is safe to do so. Note that we take care of the cases:
-            //     "a" + "b".toUpperCase()
-            //     "a" + "bcd"[i]
-
-            for (i = 1; i < length - 1; i++) {
-                token = (JavaScriptToken) tokens.get(i);
-                if (token.getType() == Token.ADD) {
-                    prevToken = (JavaScriptToken) tokens.get(i - 1);
-                    nextToken = (JavaScriptToken) tokens.get(i + 1);
-                    if (prevToken.getType() == Token.STRING &&
-                        nextToken.getType() == Token.STRING ) {
-                        if (i < length - 2) {
-                            JavaScriptToken nextNextToken = (JavaScriptToken) tokens.get(i + 2);
-                            if (nextNextToken.getType() == Token.DOT ||
-                                nextNextToken.getType() == Token.LB) {
-                                i += 3;
-                                continue;
-                            }
-                        }
-                        tokens.set(i - 1, new JavaScriptToken(Token.STRING,
-                            prevToken.getValue() + nextToken.getValue()));
-                        tokens.remove(i + 1);
-                        tokens.remove(i);
-                        i--;
-                        length -= 2;
-                    }
-                }
-            }
-        }
-
-        // Second pass...
-
-        for (i = 0; i < length; i++) {
-            token = (JavaScriptToken) tokens.get(i);
-            if (token.getType() == Token.STRING) {
-                tv = token.getValue();
-
-                // Finally, add the quoting characters and escape the string. We use
-                // the quoting character that minimizes the amount of escaping to save
-                // a few additional bytes.
+    /*
+     * Adds the quoting characters to a string literal and escapes it.
+     */
+    private static String quoteString(String tv) {
 
-                char quotechar;
-                int singleQuoteCount = countChar(tv, '\'');
-                int doubleQuoteCount = countChar(tv, '"');
-                if (doubleQuoteCount <= singleQuoteCount) {
-                    quotechar = '"';
-                } else {
-                    quotechar = '\'';
-                }
+        // We use the quoting character that minimizes the amount of escaping
+        // to save a few additional bytes.
 
-                tv = quotechar + escapeString(tv, quotechar) + quotechar;
+        char quotechar;
+        int singleQuoteCount = countChar(tv, '\'');
+        int doubleQuoteCount = countChar(tv, '"');
+        if (doubleQuoteCount <= singleQuoteCount) {
+            quotechar = '"';
+        } else {
+            quotechar = '\'';
+        }
 
-                // String concatenation transforms the old script scheme:
-                //     '<scr'+'ipt ...><'+'/script>'
-                // into the following:
-                //     '<script ...></script>'
-                // which breaks if this code is embedded inside an HTML document.
-                // Since this is not the right way to do this, let's fix the code by
-                // transforming all "</script" into "<\/script"
+        tv = quotechar + escapeString(tv, quotechar) + quotechar;
 
-                if (tv.indexOf("</script") >= 0) {
-                    tv = tv.replaceAll("<\\/script", "<\\\\/script");
-                }
+        // String concatenation transforms the old script scheme:
+        //     '<scr'+'ipt ...><'+'/script>'
+        // into the following:
+        //     '<script ...></script>'
+        // which breaks if this code is embedded inside an HTML document.
+        // Since this is not the right way to do this, let's fix the code by
+        // transforming all "</script" into "<\/script"
 
-                tokens.set(i, new JavaScriptToken(Token.STRING, tv));
-            }
+        if (tv.indexOf("</script") >= 0) {
+            tv = tv.replaceAll("<\\/script", "<\\\\/script");
         }
+
+        return tv;
     }
 
     // Add necessary escaping that was removed in Rhino's tokenizer.
@@ -465,55 +302,84 @@ public class JavaScriptCompressor {
     }
 
     /*
-    * Transforms obj["foo"] into obj.foo whenever possible, saving 3 bytes.
-    */
-    private static void optimizeObjectMemberAccess(ArrayList tokens) {
+     * Rewrites the tokens in a single forward pass, compacting the buffer
+     * in place. String literals are quoted and escaped. When optimize is
+     * true, the following transformations are also applied:
+     *   - string literals being appended are concatenated,
+     *   - obj["foo"] is transformed into obj.foo, saving 3 bytes,
+     *   - 'foo': ... is transformed into foo: ..., saving 2 bytes.
+     */
+    private static void rewriteTokens(JavaScriptTokenBuffer tokens, boolean optimize) {
 
         String tv;
-        int i, length;
-        JavaScriptToken token;
-
-        for (i = 0, length = tokens.size(); i < length; i++) {
-
-            if (((JavaScriptToken) tokens.get(i)).getType() == Token.LB &&
-                    i > 0 && i < length - 2 &&
-                    ((JavaScriptToken) tokens.get(i - 1)).getType() == Token.NAME &&
-                    ((JavaScriptToken) tokens.get(i + 1)).getType() == Token.STRING &&
-                    ((JavaScriptToken) tokens.get(i + 2)).getType() == Token.RB) {
-                token = (JavaScriptToken) tokens.get(i + 1);
-                tv = token.getValue();
-                tv = tv.substring(1, tv.length() - 1);
-                if (isValidIdentifier(tv)) {
-                    tokens.set(i, new JavaScriptToken(Token.DOT, "."));
-                    tokens.set(i + 1, new JavaScriptToken(Token.NAME, tv));
-                    tokens.remove(i + 2);
-                    i = i + 2;
-                    length = length - 1;
+        int type;
+        int length = tokens.size();
+        int i = 0;          // Position of the next token to read
+        int j = 0;          // Position of the next token to write
+        int skipped = -1;   // Position of the token following the last obj.foo
+
+        while (i < length) {
+
+            type = tokens.getType(i);
+
+            if (type == Token.STRING) {
+
+                tv = tokens.getValue(i++);
+
+                if (optimize) {
+                    // Concatenate string literals that are being appended wherever
+                    // it is safe to do so. Note that we take care of the cases:
+                    //     "a" + "b".toUpperCase()
+                    //     "a" + "bcd"[i]
+                    while (i < length - 1 &&
+                            tokens.getType(i) == Token.ADD &&
+                            tokens.getType(i + 1) == Token.STRING) {
+                        if (i < length - 2 &&
+                                (tokens.getType(i + 2) == Token.DOT ||
+                                 tokens.getType(i + 2) == Token.LB)) {
+                            break;
+                        }
+                        tv = tv + tokens.getValue(i + 1);
+                        i += 2;
+                    }
                 }
-            }
-        }
-    }
 
-    /*
-     * Transforms 'foo': ... into foo: ... whenever possible, saving 2 bytes.
-     */
-    private static void optimizeObjLitMemberDecl(ArrayList tokens) {
+                tv = quoteString(tv);
 
-        String tv;
-        int i, length;
-        JavaScriptToken token;
-
-        for (i = 0, length = tokens.size(); i < length; i++) {
-            if (((JavaScriptToken) tokens.get(i)).getType() == Token.OBJECTLIT &&
-                    i > 0 && ((JavaScriptToken) tokens.get(i - 1)).getType() == Token.STRING) {
-                token = (JavaScriptToken) tokens.get(i - 1);
-                tv = token.getValue();
-                tv = tv.substring(1, tv.length() - 1);
-                if (isValidIdentifier(tv)) {
-                    tokens.set(i - 1, new JavaScriptToken(Token.NAME, tv));
+                if (optimize && i < length && tokens.getType(i) == Token.OBJECTLIT) {
+                    String name = tv.substring(1, tv.length() - 1);
+                    if (isValidIdentifier(name)) {
+                        type = Token.NAME;
+                        tv = name;
+                    }
                 }
+
+                tokens.set(j++, type, tv);
+
+            } else {
+
+                if (optimize && type == Token.RB && j >= 3 && j - 2 != skipped &&
+                        tokens.getType(j - 3) == Token.NAME &&
+                        tokens.getType(j - 2) == Token.LB &&
+                        tokens.getType(j - 1) == Token.STRING) {
+                    tv = tokens.getValue(j - 1);
+                    tv = tv.substring(1, tv.length() - 1);
+                    if (isValidIdentifier(tv)) {
+                        tokens.set(j - 2, Token.DOT, ".");
+                        tokens.set(j - 1, Token.NAME, tv);
+                        // The token following obj.foo is never transformed,
+                        // i.e. obj["foo"]["bar"] becomes obj.foo["bar"]
+                        skipped = j;
+                        i++;
+                        continue;
+                    }
+                }
+
+                tokens.copy(i++, j++);
             }
         }
+
+        tokens.truncate(j);
     }
 
     private ErrorReporter logger;
@@ -528,10 +394,12 @@ public class JavaScriptCompressor {
     private int mode;
     private int offset;
     private int braceNesting;
-    private ArrayList tokens;
+    private JavaScriptTokenBuffer tokens;
     private Stack scopes = new Stack();
     private ScriptOrFnScope globalScope = new ScriptOrFnScope(-1, null);
     private Hashtable indexedScopes = new Hashtable();
+    private int mungeParallelism = Runtime.getRuntime().availableProcessors();
+    private int mungeParallelThreshold = 500;
 
     public JavaScriptCompressor(Reader in, ErrorReporter reporter)
             throws IOException, EvaluatorException {
@@ -539,6 +407,24 @@ public class JavaScriptCompressor {
         this.logger = reporter;
         this.tokens = parse(in, reporter);
     }
+
+    /**
+     * Sets the maximum number of threads used to munge the top-level
+     * functions concurrently. Defaults to the number of available
+     * processors. A value of 1 disables concurrent munging.
+     */
+    public void setMungeParallelism(int mungeParallelism) {
+        this.mungeParallelism = mungeParallelism;
+    }
+
+    /**
+     * Sets the minimum number of identifiers a top-level function (including
+     * its nested functions) must declare to be munged in its own thread.
+     * Smaller functions are munged by the calling thread. Defaults to 500.
+     */
+    public void setMungeParallelThreshold(int mungeParallelThreshold) {
+        this.mungeParallelThreshold = mungeParallelThreshold;
+    }
     public void compress(Writer out, int linebreak, boolean munge, boolean verbose,
             boolean preserveAllSemiColons, boolean disableOptimizations) 
             throws IOException {
@@ -553,19 +439,12 @@ public class JavaScriptCompressor {
         this.verbose = verbose;
         this.preserveUnknownHints = preserveUnknownHints;
 
-        processStringLiterals(this.tokens, !disableOptimizations);
-
-        if (!disableOptimizations) {
-            optimizeObjectMemberAccess(this.tokens);
-            optimizeObjLitMemberDecl(this.tokens);
-        }
+        rewriteTokens(this.tokens, !disableOptimizations);
 
         buildSymbolTree();
         // DO NOT TOUCH this.tokens BETWEEN THESE TWO PHASES (BECAUSE OF this.indexedScopes)
         mungeSymboltree();
-        StringBuffer sb = printSymbolTree(linebreak, preserveAllSemiColons);
-
-        out.write(sb.toString());
+        printSymbolTree(out, linebreak, preserveAllSemiColons);
 
         if (mungemap != null) {
             printMungeMapping(mungemap);
@@ -584,16 +463,28 @@ public class JavaScriptCompressor {
         scopes.pop();
     }
 
-    private JavaScriptToken consumeToken() {
-        return (JavaScriptToken) tokens.get(offset++);
+    /*
+     * Moves on to the next token and returns its type. Its value can then
+     * be retrieved using getValue(-1).
+     */
+    private int consumeToken() {
+        return tokens.getType(offset++);
     }
 
-    private JavaScriptToken getToken(int delta) {
-        try {
-            return (JavaScriptToken) tokens.get(offset + delta);
-        } catch(IndexOutOfBoundsException ex) {
-            return null;
+    /*
+     * Returns the type of the token located at the specified distance from
+     * the current offset, or Token.EOF if there is no such token.
+     */
+    private int getType(int delta) {
+        int index = offset + delta;
+        if (index < 0 || index >= tokens.size()) {
+            return Token.EOF;
         }
+        return tokens.getType(index);
+    }
+
+    private String getValue(int delta) {
+        return tokens.getValue(offset + delta);
     }
 
     /*
@@ -642,11 +533,10 @@ public class JavaScriptCompressor {
         int start = Math.max(offset - max, 0);
         int end = Math.min(offset + max, tokens.size());
         for (int i = start; i < end; i++) {
-            JavaScriptToken token = (JavaScriptToken) tokens.get(i);
             if (i == offset - 1) {
                 result.append(" ---> ");
             }
-            result.append(token.getValue());
+            result.append(tokens.getValue(i));
             if (i == offset - 1) {
                 result.append(" <--- ");
             }
@@ -666,26 +556,26 @@ public class JavaScriptCompressor {
     private void parseFunctionDeclaration() {
 
         String symbol;
-        JavaScriptToken token;
+        int type;
         ScriptOrFnScope currentScope, fnScope;
         JavaScriptIdentifier identifier;
 
         currentScope = getCurrentScope();
 
-        token = consumeToken();
-        if (token.getType() == Token.NAME) {
+        type = consumeToken();
+        if (type == Token.NAME) {
             if (mode == BUILDING_SYMBOL_TREE) {
                 // Get the name of the function and declare it in the current scope.
-                symbol = token.getValue();
+                symbol = getValue(-1);
                 if (currentScope.getIdentifier(symbol) != null) {
                     warn("The function " + symbol + " has already been declared in the same scope...", true);
                 }
                 currentScope.declareIdentifier(symbol);
             }
-            token = consumeToken();
+            type = consumeToken();
         }
 
-        assert token.getType() == Token.LP;
+        assert type == Token.LP;
         if (mode == BUILDING_SYMBOL_TREE) {
             fnScope = new ScriptOrFnScope(braceNesting, currentScope);
             indexedScopes.put(new Integer(offset), fnScope);
@@ -695,11 +585,11 @@ public class JavaScriptCompressor {
 
         // Parse function arguments.
         int argpos = 0;
-        while ((token = consumeToken()).getType() != Token.RP) {
-            assert token.getType() == Token.NAME ||
-                    token.getType() == Token.COMMA;
-            if (token.getType() == Token.NAME && mode == BUILDING_SYMBOL_TREE) {
-                symbol = token.getValue();
+        while ((type = consumeToken()) != Token.RP) {
+            assert type == Token.NAME ||
+                    type == Token.COMMA;
+            if (type == Token.NAME && mode == BUILDING_SYMBOL_TREE) {
+                symbol = getValue(-1);
                 identifier = fnScope.declareIdentifier(symbol);
                 if (symbol.equals("$super") && argpos == 0) {
                     // Exception for Prototype 1.6...
@@ -709,13 +599,13 @@ public class JavaScriptCompressor {
             }
         }
 
-        token = consumeToken();
-        assert token.getType() == Token.LC;
+        type = consumeToken();
+        assert type == Token.LC;
         braceNesting++;
 
-        token = getToken(0);
-        if (token.getType() == Token.STRING &&
-                getToken(1).getType() == Token.SEMI) {
+        type = getType(0);
+        if (type == Token.STRING &&
+                getType(1) == Token.SEMI) {
             // This is a hint. Hints are empty statements that look like
             // "localvar1:nomunge, localvar2:nomunge"; They allow developers
             // to prevent specific symbols from getting obfuscated (some heretic
@@ -725,7 +615,7 @@ public class JavaScriptCompressor {
             // of a hint. However, in the future, the right hand side may contain
             // other values.
             consumeToken();
-            String hints = token.getValue();
+            String hints = getValue(-1);
             // Remove the leading and trailing quotes...
             hints = hints.substring(1, hints.length() - 1).trim();
             StringTokenizer st1 = new StringTokenizer(hints, ",");
@@ -764,18 +654,18 @@ public class JavaScriptCompressor {
     private void parseCatch() {
 
         String symbol;
-        JavaScriptToken token;
+        int type;
         ScriptOrFnScope currentScope;
         JavaScriptIdentifier identifier;
 
-        token = getToken(-1);
-        assert token.getType() == Token.CATCH;
-        token = consumeToken();
-        assert token.getType() == Token.LP;
-        token = consumeToken();
-        assert token.getType() == Token.NAME;
+        type = getType(-1);
+        assert type == Token.CATCH;
+        type = consumeToken();
+        assert type == Token.LP;
+        type = consumeToken();
+        assert type == Token.NAME;
 
-        symbol = token.getValue();
+        symbol = getValue(-1);
         currentScope = getCurrentScope();
 
         if (mode == BUILDING_SYMBOL_TREE) {
@@ -788,8 +678,8 @@ public class JavaScriptCompressor {
             identifier.incrementRefcount();
         }
 
-        token = consumeToken();
-        assert token.getType() == Token.RP;
+        type = consumeToken();
+        assert type == Token.RP;
     }
 
     private void parseExpression() {
@@ -799,7 +689,7 @@ public class JavaScriptCompressor {
         // Parse functions if any...
 
         String symbol;
-        JavaScriptToken token;
+        int type;
         ScriptOrFnScope currentScope;
         JavaScriptIdentifier identifier;
 
@@ -811,10 +701,10 @@ public class JavaScriptCompressor {
 
         while (offset < length) {
 
-            token = consumeToken();
+            type = consumeToken();
             currentScope = getCurrentScope();
 
-            switch (token.getType()) {
+            switch (type) {
 
                 case Token.SEMI:
                 case Token.COMMA:
@@ -862,7 +752,7 @@ public class JavaScriptCompressor {
                     break;
 
                 case Token.NAME:
-                    symbol = token.getValue();
+                    symbol = getValue(-1);
 
                     if (mode == BUILDING_SYMBOL_TREE) {
 
@@ -876,10 +766,10 @@ public class JavaScriptCompressor {
                     } else if (mode == CHECKING_SYMBOL_TREE) {
 
                         if ((offset < 2 ||
-                                (getToken(-2).getType() != Token.DOT &&
-                                        getToken(-2).getType() != Token.GET &&
-                                        getToken(-2).getType() != Token.SET)) &&
-                                getToken(0).getType() != Token.OBJECTLIT) {
+                                (getType(-2) != Token.DOT &&
+                                        getType(-2) != Token.GET &&
+                                        getType(-2) != Token.SET)) &&
+                                getType(0) != Token.OBJECTLIT) {
 
                             identifier = getIdentifier(symbol, currentScope);
 
@@ -916,7 +806,7 @@ public class JavaScriptCompressor {
     private void parseScope(ScriptOrFnScope scope) {
 
         String symbol;
-        JavaScriptToken token;
+        int type;
         JavaScriptIdentifier identifier;
 
         int length = tokens.size();
@@ -925,9 +815,9 @@ public class JavaScriptCompressor {
 
         while (offset < length) {
 
-            token = consumeToken();
+            type = consumeToken();
 
-            switch (token.getType()) {
+            switch (type) {
 
                 case Token.VAR:
 
@@ -942,12 +832,12 @@ public class JavaScriptCompressor {
                     // The var keyword is followed by at least one symbol name.
                     // If several symbols follow, they are comma separated.
                     for (; ;) {
-                        token = consumeToken();
+                        type = consumeToken();
 
-                        assert token.getType() == Token.NAME;
+                        assert type == Token.NAME;
 
                         if (mode == BUILDING_SYMBOL_TREE) {
-                            symbol = token.getValue();
+                            symbol = getValue(-1);
                             if (scope.getIdentifier(symbol) == null) {
                                 scope.declareIdentifier(symbol);
                             } else {
@@ -955,19 +845,19 @@ public class JavaScriptCompressor {
                             }
                         }
 
-                        token = getToken(0);
+                        type = getType(0);
 
-                        assert token.getType() == Token.SEMI ||
-                                token.getType() == Token.ASSIGN ||
-                                token.getType() == Token.COMMA ||
-                                token.getType() == Token.IN;
+                        assert type == Token.SEMI ||
+                                type == Token.ASSIGN ||
+                                type == Token.COMMA ||
+                                type == Token.IN;
 
-                        if (token.getType() == Token.IN) {
+                        if (type == Token.IN) {
                             break;
                         } else {
                             parseExpression();
-                            token = getToken(-1);
-                            if (token.getType() == Token.SEMI) {
+                            type = getType(-1);
+                            if (type == Token.SEMI) {
                                 break;
                             }
                         }
@@ -1015,7 +905,7 @@ public class JavaScriptCompressor {
                     break;
 
                 case Token.NAME:
-                    symbol = token.getValue();
+                    symbol = getValue(-1);
 
                     if (mode == BUILDING_SYMBOL_TREE) {
 
@@ -1028,8 +918,8 @@ public class JavaScriptCompressor {
 
                     } else if (mode == CHECKING_SYMBOL_TREE) {
 
-                        if ((offset < 2 || getToken(-2).getType() != Token.DOT) &&
-                                getToken(0).getType() != Token.OBJECTLIT) {
+                        if ((offset < 2 || getType(-2) != Token.DOT) &&
+                                getType(0) != Token.OBJECTLIT) {
 
                             identifier = getIdentifier(symbol, scope);
 
@@ -1097,10 +987,10 @@ public class JavaScriptCompressor {
         scopes.clear();
         mode = CHECKING_SYMBOL_TREE;
         parseScope(globalScope);
-        globalScope.munge();
+        globalScope.munge(mungeParallelism, mungeParallelThreshold);
     }
 
-    private StringBuffer printSymbolTree(int linebreakpos, boolean preserveAllSemiColons)
+    private void printSymbolTree(Writer out, int linebreakpos, boolean preserveAllSemiColons)
             throws IOException {
 
         offset = 0;
@@ -1108,13 +998,13 @@ public class JavaScriptCompressor {
         scopes.clear();
 
         String symbol;
-        JavaScriptToken token;
-        JavaScriptToken lastToken = getToken(0);
+        int type;
+        int lastType = getType(0);
         ScriptOrFnScope currentScope;
         JavaScriptIdentifier identifier;
 
         int length = tokens.size();
-        StringBuffer result = new StringBuffer();
+        JavaScriptOutputBuffer result = new JavaScriptOutputBuffer(out);
 
         int linestartpos = 0;
 
@@ -1122,18 +1012,18 @@ public class JavaScriptCompressor {
 
         while (offset < length) {
 
-            token = consumeToken();
-            symbol = token.getValue();
+            type = consumeToken();
+            symbol = getValue(-1);
             currentScope = getCurrentScope();
-            switch (token.getType()) {
+            switch (type) {
                 case Token.GET:
                 case Token.SET:
-                    lastToken = token;
+                    lastType = type;
 
                 case Token.NAME:
 
-                    if (offset >= 2 && getToken(-2).getType() == Token.DOT ||
-                            getToken(0).getType() == Token.OBJECTLIT) {
+                    if (offset >= 2 && getType(-2) == Token.DOT ||
+                            getType(0) == Token.OBJECTLIT) {
 
                         result.append(symbol);
 
@@ -1161,7 +1051,7 @@ public class JavaScriptCompressor {
                     break;
 
                 case Token.NUMBER:
-                    if (getToken(0).getType() == Token.DOT) {
+                    if (getType(0) == Token.DOT) {
                         // calling methods on int requires a leading dot so JS doesn't
                         // treat the method as the decimal component of a float
                         result.append('(');
@@ -1174,20 +1064,20 @@ public class JavaScriptCompressor {
 
                 case Token.ADD:
                 case Token.SUB:
-                    result.append((String) literals.get(new Integer(token.getType())));
+                    result.append((String) literals.get(new Integer(type)));
                     if (offset < length) {
-                        token = getToken(0);
-                        if (token.getType() == Token.INC ||
-                                token.getType() == Token.DEC ||
-                                token.getType() == Token.ADD ||
-                                token.getType() == Token.DEC) {
+                        type = getType(0);
+                        if (type == Token.INC ||
+                                type == Token.DEC ||
+                                type == Token.ADD ||
+                                type == Token.DEC) {
                             // Handle the case x +/- ++/-- y
                             // We must keep a white space here. Otherwise, x +++ y would be
                             // interpreted as x ++ + y by the compiler, which is a bug (due
                             // to the implicit assignment being done on the wrong variable)
                             result.append(' ');
-                        } else if (token.getType() == Token.POS && getToken(-1).getType() == Token.ADD ||
-                                token.getType() == Token.NEG && getToken(-1).getType() == Token.SUB) {
+                        } else if (type == Token.POS && getType(-1) == Token.ADD ||
+                                type == Token.NEG && getType(-1) == Token.SUB) {
                             // Handle the case x + + y and x - - y
                             result.append(' ');
                         }
@@ -1195,14 +1085,14 @@ public class JavaScriptCompressor {
                     break;
 
                 case Token.FUNCTION:
-                    if (lastToken.getType() != Token.GET && lastToken.getType() != Token.SET) {
+                    if (lastType != Token.GET && lastType != Token.SET) {
                         result.append("function");
                     }
-                    lastToken = token;
-                    token = consumeToken();
-                    if (token.getType() == Token.NAME) {
+                    lastType = type;
+                    type = consumeToken();
+                    if (type == Token.NAME) {
                         result.append(' ');
-                        symbol = token.getValue();
+                        symbol = getValue(-1);
                         identifier = getIdentifier(symbol, currentScope);
                         assert identifier != null;
                         if (identifier.getMungedValue() != null) {
@@ -1213,16 +1103,16 @@ public class JavaScriptCompressor {
                         if (currentScope != globalScope && identifier.getRefcount() == 0) {
                             warn("The symbol " + symbol + " is declared but is apparently never used.\nThis code can probably be written in a more compact way.", true);
                         }
-                        token = consumeToken();
+                        type = consumeToken();
                     }
-                    assert token.getType() == Token.LP;
+                    assert type == Token.LP;
                     result.append('(');
                     currentScope = (ScriptOrFnScope) indexedScopes.get(new Integer(offset));
                     enterScope(currentScope);
-                    while ((token = consumeToken()).getType() != Token.RP) {
-                        assert token.getType() == Token.NAME || token.getType() == Token.COMMA;
-                        if (token.getType() == Token.NAME) {
-                            symbol = token.getValue();
+                    while ((type = consumeToken()) != Token.RP) {
+                        assert type == Token.NAME || type == Token.COMMA;
+                        if (type == Token.NAME) {
+                            symbol = getValue(-1);
                             identifier = getIdentifier(symbol, currentScope);
                             assert identifier != null;
                             if (identifier.getMungedValue() != null) {
@@ -1230,18 +1120,18 @@ public class JavaScriptCompressor {
                             } else {
                                 result.append(symbol);
                             }
-                        } else if (token.getType() == Token.COMMA) {
+                        } else if (type == Token.COMMA) {
                             result.append(',');
                         }
                     }
                     result.append(')');
-                    token = consumeToken();
-                    assert token.getType() == Token.LC;
+                    type = consumeToken();
+                    assert type == Token.LC;
                     result.append('{');
                     braceNesting++;
-                    token = getToken(0);
-                    if (token.getType() == Token.STRING &&
-                            getToken(1).getType() == Token.SEMI) {
+                    type = getType(0);
+                    if (type == Token.STRING &&
+                            getType(1) == Token.SEMI) {
                         if (! preserveUnknownHints) {
                             // This is an unknown hint. Skip it!
                             consumeToken();
@@ -1252,17 +1142,17 @@ public class JavaScriptCompressor {
 
                 case Token.RETURN:
                 case Token.TYPEOF:
-                    result.append(literals.get(new Integer(token.getType())));
+                    result.append((String) literals.get(new Integer(type)));
                     // No space needed after 'return' and 'typeof' when followed
                     // by '(', '[', '{', a string or a regexp.
                     if (offset < length) {
-                        token = getToken(0);
-                        if (token.getType() != Token.LP &&
-                                token.getType() != Token.LB &&
-                                token.getType() != Token.LC &&
-                                token.getType() != Token.STRING &&
-                                token.getType() != Token.REGEXP &&
-                                token.getType() != Token.SEMI) {
+                        type = getType(0);
+                        if (type != Token.LP &&
+                                type != Token.LB &&
+                                type != Token.LC &&
+                                type != Token.STRING &&
+                                type != Token.REGEXP &&
+                                type != Token.SEMI) {
                             result.append(' ');
                         }
                     }
@@ -1270,17 +1160,17 @@ public class JavaScriptCompressor {
 
                 case Token.CASE:
                 case Token.THROW:
-                    result.append(literals.get(new Integer(token.getType())));
+                    result.append((String) literals.get(new Integer(type)));
                     // White-space needed after 'case' and 'throw' when not followed by a string.
-                    if (offset < length && getToken(0).getType() != Token.STRING) {
+                    if (offset < length && getType(0) != Token.STRING) {
                         result.append(' ');
                     }
                     break;
 
                 case Token.BREAK:
                 case Token.CONTINUE:
-                    result.append(literals.get(new Integer(token.getType())));
-                    if (offset < length && getToken(0).getType() != Token.SEMI) {
+                    result.append((String) literals.get(new Integer(type)));
+                    if (offset < length && getType(0) != Token.SEMI) {
                         // If 'break' or 'continue' is not followed by a semi-colon, it must
                         // be followed by a label, hence the need for a white space.
                         result.append(' ');
@@ -1303,7 +1193,7 @@ public class JavaScriptCompressor {
 
                 case Token.SEMI:
                     // No need to output a semi-colon if the next character is a right-curly...
-                    if (preserveAllSemiColons || offset < length && getToken(0).getType() != Token.RC) {
+                    if (preserveAllSemiColons || offset < length && getType(0) != Token.RC) {
                         result.append(';');
                     }
 
@@ -1318,18 +1208,18 @@ public class JavaScriptCompressor {
 
                 case Token.COMMA:
                     // No need to output a comma if the next character is a right-curly or a right-square bracket
-                    if (offset < length && getToken(0).getType() != Token.RC && getToken(0).getType() != Token.RB) {
+                    if (offset < length && getType(0) != Token.RC && getType(0) != Token.RB) {
                         result.append(',');
                     }
                     break;
 
                 case Token.CONDCOMMENT:
                 case Token.KEEPCOMMENT:
-                    if (result.length() > 0 && result.charAt(result.length() - 1) != '\n') {
+                    if (result.length() > 0 && result.getLastChar() != '\n') {
                         result.append("\n");
                     }
                     result.append("/*");
-                    if (token.getType() == Token.KEEPCOMMENT) {
+                    if (type == Token.KEEPCOMMENT) {
                         result.append("!");
                     }
                     result.append(symbol);
@@ -1337,7 +1227,7 @@ public class JavaScriptCompressor {
                     break;
 
                 default:
-                    String literal = (String) literals.get(new Integer(token.getType()));
+                    String literal = (String) literals.get(new Integer(type));
                     if (literal != null) {
                         result.append(literal);
                     } else {
@@ -1353,16 +1243,16 @@ public class JavaScriptCompressor {
         // end of one file may very likely cause a syntax error)
         if (!preserveAllSemiColons &&
                 result.length() > 0 &&
-                getToken(-1).getType() != Token.CONDCOMMENT &&
-                getToken(-1).getType() != Token.KEEPCOMMENT) {
-            if (result.charAt(result.length() - 1) == '\n') {
-                result.setCharAt(result.length() - 1, ';');
+                getType(-1) != Token.CONDCOMMENT &&
+                getType(-1) != Token.KEEPCOMMENT) {
+            if (result.getLastChar() == '\n') {
+                result.setLastChar(';');
             } else {
                 result.append(';');
             }
         }
 
-        return result;
+        result.flush();
     }
 
     private void printMungeMapping(Writer map) throws IOException {
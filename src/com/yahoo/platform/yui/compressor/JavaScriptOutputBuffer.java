@@ -0,0 +1,94 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Author: Julien Lecomte -  http://www.julienlecomte.net/
+ * Copyright (c) 2011 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * JavaScriptOutputBuffer collects the output of the JavaScript compressor
+ * in a fixed size buffer which is flushed to the underlying writer as it
+ * fills up, so that memory usage does not depend on the size of the output.
+ * The last character written is never flushed before the end, because the
+ * compressor may need to look at it or replace it.
+ */
+class JavaScriptOutputBuffer {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private Writer out;
+    private char[] buffer = new char[BUFFER_SIZE];
+    private int count;
+    private int flushed;
+
+    JavaScriptOutputBuffer(Writer out) {
+        this.out = out;
+    }
+
+    /*
+     * Returns the total number of characters written so far, including
+     * the ones which have already been flushed.
+     */
+    int length() {
+        return flushed + count;
+    }
+
+    char getLastChar() {
+        if (count == 0) {
+            throw new IndexOutOfBoundsException("The buffer is empty");
+        }
+        return buffer[count - 1];
+    }
+
+    void setLastChar(char c) {
+        if (count == 0) {
+            throw new IndexOutOfBoundsException("The buffer is empty");
+        }
+        buffer[count - 1] = c;
+    }
+
+    void append(char c) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = c;
+    }
+
+    void append(String s) throws IOException {
+        int length = s.length();
+        int start = 0;
+        while (start < length) {
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+            int n = Math.min(length - start, buffer.length - count);
+            s.getChars(start, start + n, buffer, count);
+            count += n;
+            start += n;
+        }
+    }
+
+    /*
+     * Writes all the remaining characters to the underlying writer.
+     */
+    void flush() throws IOException {
+        out.write(buffer, 0, count);
+        flushed += count;
+        count = 0;
+    }
+
+    // Writes everything but the last character, which is moved to the
+    // beginning of the buffer.
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, count - 1);
+        flushed += count - 1;
+        buffer[0] = buffer[count - 1];
+        count = 1;
+    }
+}
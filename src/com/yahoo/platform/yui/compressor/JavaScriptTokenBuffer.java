@@ -0,0 +1,106 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Author: Julien Lecomte -  http://www.julienlecomte.net/
+ * Copyright (c) 2011 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JavaScriptTokenBuffer holds the list of tokens processed by the
+ * JavaScript compressor. Tokens are stored in two parallel arrays: one for
+ * their types, and one for the index of their values in a pool of strings.
+ * The pool contains every value only once, so that keywords, punctuators
+ * and identifiers used many times don't cost more than an int per token.
+ */
+class JavaScriptTokenBuffer {
+
+    private int[] types = new int[1024];
+    private int[] values = new int[1024];
+    private int size;
+
+    private String[] pool = new String[256];
+    private int poolSize;
+    private Map poolIndexes = new HashMap();
+
+    int size() {
+        return size;
+    }
+
+    int getType(int index) {
+        checkIndex(index);
+        return types[index];
+    }
+
+    String getValue(int index) {
+        checkIndex(index);
+        return pool[values[index]];
+    }
+
+    void add(int type, String value) {
+        if (size == types.length) {
+            int[] tmp = new int[size * 2];
+            System.arraycopy(types, 0, tmp, 0, size);
+            types = tmp;
+            tmp = new int[size * 2];
+            System.arraycopy(values, 0, tmp, 0, size);
+            values = tmp;
+        }
+        types[size] = type;
+        values[size] = getPoolIndex(value);
+        size++;
+    }
+
+    void set(int index, int type, String value) {
+        checkIndex(index);
+        types[index] = type;
+        values[index] = getPoolIndex(value);
+    }
+
+    /*
+     * Copies the token located at index from over the token located at
+     * index to.
+     */
+    void copy(int from, int to) {
+        checkIndex(from);
+        checkIndex(to);
+        types[to] = types[from];
+        values[to] = values[from];
+    }
+
+    /*
+     * Removes all the tokens located at or after the specified index.
+     */
+    void truncate(int size) {
+        if (size < 0 || size > this.size) {
+            throw new IndexOutOfBoundsException("Size: " + size);
+        }
+        this.size = size;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    private int getPoolIndex(String value) {
+        Integer index = (Integer) poolIndexes.get(value);
+        if (index != null) {
+            return index.intValue();
+        }
+        if (poolSize == pool.length) {
+            String[] tmp = new String[poolSize * 2];
+            System.arraycopy(pool, 0, tmp, 0, poolSize);
+            pool = tmp;
+        }
+        pool[poolSize] = value;
+        poolIndexes.put(value, new Integer(poolSize));
+        return poolSize++;
+    }
+}
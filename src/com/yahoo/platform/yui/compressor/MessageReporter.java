@@ -0,0 +1,60 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Author: Julien Lecomte -  http://www.julienlecomte.net/
+ * Copyright (c) 2011 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+import org.mozilla.javascript.ErrorReporter;
+import org.mozilla.javascript.EvaluatorException;
+
+import java.io.PrintWriter;
+
+/**
+ * MessageReporter prints the warnings and errors found while compressing
+ * a JavaScript file to a PrintWriter (stderr on the command line, or the
+ * messages sent back by --batch, --server and --jobs.)
+ */
+class MessageReporter implements ErrorReporter {
+
+    private PrintWriter messages;
+    private String filename;
+
+    /*
+     * filename is the name of the file being compressed, or null if the
+     * messages don't need to name it.
+     */
+    MessageReporter(PrintWriter messages, String filename) {
+        this.messages = messages;
+        this.filename = filename;
+    }
+
+    public void warning(String message, String sourceName,
+            int line, String lineSource, int lineOffset) {
+        messages.println("\n[WARNING]" + (filename == null ? "" : " in " + filename));
+        print(message, line, lineOffset);
+    }
+
+    public void error(String message, String sourceName,
+            int line, String lineSource, int lineOffset) {
+        messages.println("[ERROR]" + (filename == null ? "" : " in " + filename));
+        print(message, line, lineOffset);
+    }
+
+    public EvaluatorException runtimeError(String message, String sourceName,
+            int line, String lineSource, int lineOffset) {
+        error(message, sourceName, line, lineSource, lineOffset);
+        return new EvaluatorException(message);
+    }
+
+    private void print(String message, int line, int lineOffset) {
+        if (line < 0) {
+            messages.println("  " + message);
+        } else {
+            messages.println("  " + line + ':' + lineOffset + ':' + message);
+        }
+    }
+}
@@ -9,6 +9,10 @@
 package com.yahoo.platform.yui.compressor;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 class ScriptOrFnScope {
 
@@ -62,8 +66,12 @@ class ScriptOrFnScope {
         }
     }
 
-    private ArrayList getUsedSymbols() {
-        ArrayList result = new ArrayList();
+    /*
+     * Returns the ordinals of the symbols currently used by the identifiers
+     * declared in this scope (see SymbolGenerator.getOrdinal)
+     */
+    private BitSet getUsedSymbols() {
+        BitSet result = new BitSet();
         Enumeration elements = identifiers.elements();
         while (elements.hasMoreElements()) {
             JavaScriptIdentifier identifier = (JavaScriptIdentifier) elements.nextElement();
@@ -71,19 +79,25 @@ class ScriptOrFnScope {
             if (mungedValue == null) {
                 mungedValue = identifier.getValue();
             }
-            result.add(mungedValue);
+            int ordinal = SymbolGenerator.getOrdinal(mungedValue);
+            if (ordinal >= 0) {
+                result.set(ordinal);
+            }
         }
         return result;
     }
 
-    private ArrayList getAllUsedSymbols() {
-        ArrayList result = new ArrayList();
-        ScriptOrFnScope scope = this;
-        while (scope != null) {
-            result.addAll(scope.getUsedSymbols());
-            scope = scope.parentScope;
+    /*
+     * Returns the number of identifiers declared in this scope and in all
+     * the scopes it contains.
+     */
+    int getIdentifierCount() {
+        int count = identifiers.size();
+        for (int i = 0; i < subScopes.size(); i++) {
+            ScriptOrFnScope scope = (ScriptOrFnScope) subScopes.get(i);
+            count += scope.getIdentifierCount();
         }
-        return result;
+        return count;
     }
 
     int incrementVarCount() {
@@ -111,69 +125,172 @@ class ScriptOrFnScope {
     }
 
     void munge() {
+        munge(new BitSet());
+    }
+
+    /*
+     * Same as munge(), except that the sub-scopes containing at least
+     * threshold identifiers are munged concurrently, using up to
+     * parallelism threads. Sub-scopes only depend on the symbols used in
+     * the scopes containing them, which are not modified while munging
+     * them, so the result is the same as when munging sequentially.
+     */
+    void munge(int parallelism, int threshold) {
 
         if (!markedForMunging) {
-            // Stop right here if this scope was flagged as unsafe for munging.
             return;
         }
 
-        int pickFromSet = 1;
+        final BitSet symbols = mungeIdentifiers(new BitSet());
 
-        // Do not munge symbols in the global scope!
-        if (parentScope != null) {
+        ArrayList largeScopes = new ArrayList();
+        ArrayList smallScopes = new ArrayList();
+        for (int i = 0; i < subScopes.size(); i++) {
+            ScriptOrFnScope scope = (ScriptOrFnScope) subScopes.get(i);
+            if (scope.getIdentifierCount() >= threshold) {
+                largeScopes.add(scope);
+            } else {
+                smallScopes.add(scope);
+            }
+        }
 
-            LinkedHashSet freeSymbols = new LinkedHashSet();
+        if (parallelism <= 1 || largeScopes.size() < 2) {
+            for (int i = 0; i < subScopes.size(); i++) {
+                ScriptOrFnScope scope = (ScriptOrFnScope) subScopes.get(i);
+                scope.munge(symbols);
+            }
+            return;
+        }
 
-            freeSymbols.addAll(JavaScriptCompressor.ones);
-            freeSymbols.removeAll(getAllUsedSymbols());
-            if (freeSymbols.size() == 0) {
-                pickFromSet = 2;
-                freeSymbols.addAll(JavaScriptCompressor.twos);
-                freeSymbols.removeAll(getAllUsedSymbols());
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(parallelism, largeScopes.size()));
+        try {
+            ArrayList futures = new ArrayList();
+            for (int i = 0; i < largeScopes.size(); i++) {
+                final ScriptOrFnScope scope = (ScriptOrFnScope) largeScopes.get(i);
+                futures.add(executor.submit(new Runnable() {
+                    public void run() {
+                        scope.munge(symbols);
+                    }
+                }));
             }
-            if (freeSymbols.size() == 0) {
-                pickFromSet = 3;
-                freeSymbols.addAll(JavaScriptCompressor.threes);
-                freeSymbols.removeAll(getAllUsedSymbols());
+
+            // Take care of the small scopes while the large ones are
+            // being munged...
+            for (int i = 0; i < smallScopes.size(); i++) {
+                ScriptOrFnScope scope = (ScriptOrFnScope) smallScopes.get(i);
+                scope.munge(symbols);
             }
-            if (freeSymbols.size() == 0) {
-                throw new IllegalStateException("The YUI Compressor ran out of symbols. Aborting...");
+
+            for (int i = 0; i < futures.size(); i++) {
+                Future future = (Future) futures.get(i);
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause.toString());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while munging");
+                }
             }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * inheritedSymbols contains the ordinals of the symbols used in all the
+     * containing scopes. It may be shared with sibling scopes, so it must
+     * not be modified.
+     */
+    private void munge(BitSet inheritedSymbols) {
+
+        if (!markedForMunging) {
+            // Stop right here if this scope was flagged as unsafe for munging.
+            return;
+        }
+
+        BitSet symbols = mungeIdentifiers(inheritedSymbols);
+
+        for (int i = 0; i < subScopes.size(); i++) {
+            ScriptOrFnScope scope = (ScriptOrFnScope) subScopes.get(i);
+            scope.munge(symbols);
+        }
+    }
+
+    /*
+     * Munges the identifiers declared in this scope, and returns the
+     * ordinals of the symbols used in this scope and in all the containing
+     * scopes, to be passed to the sub-scopes.
+     */
+    private BitSet mungeIdentifiers(BitSet inheritedSymbols) {
+
+        BitSet usedSymbols = getUsedSymbols();
+
+        // Do not munge symbols in the global scope!
+        if (parentScope != null) {
+
+            // Candidates are picked in order, starting with the shortest ones.
+            // The original names of the identifiers munged so far are kept
+            // in usedSymbols until we move on to longer candidates, at which
+            // point they become available again.
+            BitSet releasedSymbols = new BitSet();
+            int symbolLength = 1;
+            int ordinal = 0;
 
             Enumeration elements = identifiers.elements();
             while (elements.hasMoreElements()) {
-                if (freeSymbols.size() == 0) {
-                    pickFromSet++;
-                    if (pickFromSet == 2) {
-                        freeSymbols.addAll(JavaScriptCompressor.twos);
-                    } else if (pickFromSet == 3) {
-                        freeSymbols.addAll(JavaScriptCompressor.threes);
-                    } else {
-                        throw new IllegalStateException("The YUI Compressor ran out of symbols. Aborting...");
-                    }
-                    // It is essential to remove the symbols already used in
-                    // the containing scopes, or some of the variables declared
-                    // in the containing scopes will be redeclared, which can
-                    // lead to errors.
-                    freeSymbols.removeAll(getAllUsedSymbols());
-                }
 
                 String mungedValue;
                 JavaScriptIdentifier identifier = (JavaScriptIdentifier) elements.nextElement();
                 if (identifier.isMarkedForMunging()) {
-                    Iterator freeSymIt = freeSymbols.iterator();
-                    mungedValue = (String) freeSymIt.next();
-                    freeSymIt.remove();
+                    while (true) {
+                        if (ordinal == SymbolGenerator.SYMBOL_COUNT) {
+                            throw new IllegalStateException("The YUI Compressor ran out of symbols. Aborting...");
+                        }
+                        if (SymbolGenerator.getLength(ordinal) != symbolLength) {
+                            symbolLength = SymbolGenerator.getLength(ordinal);
+                            usedSymbols.andNot(releasedSymbols);
+                            releasedSymbols.clear();
+                        }
+                        // It is essential to skip the symbols used in the
+                        // containing scopes, or some of the variables declared
+                        // in the containing scopes will be redeclared, which can
+                        // lead to errors.
+                        if (SymbolGenerator.isAvailable(ordinal) &&
+                                !inheritedSymbols.get(ordinal) &&
+                                !usedSymbols.get(ordinal)) {
+                            break;
+                        }
+                        ordinal++;
+                    }
+                    mungedValue = SymbolGenerator.getSymbol(ordinal);
+                    int originalOrdinal = SymbolGenerator.getOrdinal(identifier.getValue());
+                    if (originalOrdinal >= 0) {
+                        releasedSymbols.set(originalOrdinal);
+                    }
+                    usedSymbols.set(ordinal);
+                    ordinal++;
                 } else {
                     mungedValue = identifier.getValue();
                 }
                 identifier.setMungedValue(mungedValue);
             }
+
+            usedSymbols.andNot(releasedSymbols);
         }
 
-        for (int i = 0; i < subScopes.size(); i++) {
-            ScriptOrFnScope scope = (ScriptOrFnScope) subScopes.get(i);
-            scope.munge();
+        BitSet symbols = inheritedSymbols;
+        if (subScopes.size() > 0 && !usedSymbols.isEmpty()) {
+            symbols = (BitSet) inheritedSymbols.clone();
+            symbols.or(usedSymbols);
         }
+        return symbols;
     }
 }
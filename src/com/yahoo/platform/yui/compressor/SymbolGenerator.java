@@ -0,0 +1,156 @@
+/*
+ * YUI Compressor
+ * http://developer.yahoo.com/yui/compressor/
+ * Author: Julien Lecomte -  http://www.julienlecomte.net/
+ * Copyright (c) 2011 Yahoo! Inc.  All rights reserved.
+ * The copyrights embodied in the content of this file are licensed
+ * by Yahoo! Inc. under the BSD (revised) open source license.
+ */
+package com.yahoo.platform.yui.compressor;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * SymbolGenerator computes the candidate names used when munging local
+ * symbols. Candidates are ordered by length, then by their position in
+ * the alphabets below (a-z, A-Z for the first character, followed by
+ * 0-9 for the other characters). Each candidate is identified by its
+ * ordinal in that sequence, so that sets of symbols can be represented
+ * as bit sets, and is computed on demand instead of being stored in a
+ * table.
+ */
+class SymbolGenerator {
+
+    static final int MAX_SYMBOL_LENGTH = 3;
+
+    private static final int FIRST_CHAR_COUNT = 26 + 26;
+    private static final int OTHER_CHAR_COUNT = 26 + 26 + 10;
+
+    // Ordinal of the first candidate of each length. The last entry is
+    // the total number of candidates.
+    private static final int[] starts = new int[MAX_SYMBOL_LENGTH + 1];
+
+    static final int SYMBOL_COUNT;
+
+    // JavaScript reserved words which are 3 characters or less in length.
+    private static final Set reserved = new HashSet();
+
+    private static final BitSet unavailable = new BitSet();
+
+    static {
+        int count = FIRST_CHAR_COUNT;
+        for (int length = 1; length <= MAX_SYMBOL_LENGTH; length++) {
+            starts[length] = starts[length - 1] + count;
+            count *= OTHER_CHAR_COUNT;
+        }
+        SYMBOL_COUNT = starts[MAX_SYMBOL_LENGTH];
+
+        reserved.add("as");
+        reserved.add("is");
+        reserved.add("do");
+        reserved.add("if");
+        reserved.add("in");
+        reserved.add("for");
+        reserved.add("int");
+        reserved.add("new");
+        reserved.add("try");
+        reserved.add("use");
+        reserved.add("var");
+
+        Set excluded = new HashSet(reserved);
+        excluded.addAll(JavaScriptCompressor.builtin);
+        Iterator it = excluded.iterator();
+        while (it.hasNext()) {
+            int ordinal = getOrdinal((String) it.next());
+            if (ordinal >= 0) {
+                unavailable.set(ordinal);
+            }
+        }
+
+        // That's up to ((26+26)*(1+(26+26+10)))*(1+(26+26+10))-8
+        // (206,380 symbols per scope)
+    }
+
+    private static char getChar(int index) {
+        if (index < 26) {
+            return (char) ('a' + index);
+        } else if (index < 52) {
+            return (char) ('A' + index - 26);
+        } else {
+            return (char) ('0' + index - 52);
+        }
+    }
+
+    private static int getCharIndex(char c) {
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a';
+        } else if (c >= 'A' && c <= 'Z') {
+            return c - 'A' + 26;
+        } else if (c >= '0' && c <= '9') {
+            return c - '0' + 52;
+        }
+        return -1;
+    }
+
+    /*
+     * Returns the length of the candidate with the specified ordinal.
+     */
+    static int getLength(int ordinal) {
+        assert ordinal >= 0 && ordinal < SYMBOL_COUNT;
+        int length = 1;
+        while (ordinal >= starts[length]) {
+            length++;
+        }
+        return length;
+    }
+
+    /*
+     * Returns the candidate with the specified ordinal.
+     */
+    static String getSymbol(int ordinal) {
+        int length = getLength(ordinal);
+        int index = ordinal - starts[length - 1];
+        char[] chars = new char[length];
+        for (int i = length - 1; i > 0; i--) {
+            chars[i] = getChar(index % OTHER_CHAR_COUNT);
+            index /= OTHER_CHAR_COUNT;
+        }
+        chars[0] = getChar(index);
+        return new String(chars);
+    }
+
+    /*
+     * Returns the ordinal of the specified symbol, or -1 if this symbol
+     * cannot be generated (e.g. it is too long or starts with a digit.)
+     */
+    static int getOrdinal(String symbol) {
+        int length = symbol.length();
+        if (length == 0 || length > MAX_SYMBOL_LENGTH) {
+            return -1;
+        }
+        int index = getCharIndex(symbol.charAt(0));
+        if (index < 0 || index >= FIRST_CHAR_COUNT) {
+            return -1;
+        }
+        for (int i = 1; i < length; i++) {
+            int c = getCharIndex(symbol.charAt(i));
+            if (c < 0) {
+                return -1;
+            }
+            index = index * OTHER_CHAR_COUNT + c;
+        }
+        return starts[length - 1] + index;
+    }
+
+    /*
+     * Returns false if the candidate with the specified ordinal is a
+     * reserved word or a built-in global symbol, and therefore cannot
+     * be used.
+     */
+    static boolean isAvailable(int ordinal) {
+        return !unavailable.get(ordinal);
+    }
+}
@@ -9,8 +9,6 @@
 package com.yahoo.platform.yui.compressor;
 
 import jargs.gnu.CmdLineParser;
-import org.mozilla.javascript.ErrorReporter;
-import org.mozilla.javascript.EvaluatorException;
 
 import java.io.*;
 import java.nio.charset.Charset;
@@ -32,10 +30,16 @@ public class YUICompressor {
         CmdLineParser.Option outputFilenameOpt = parser.addStringOption('o', "output");
         CmdLineParser.Option mungemapFilenameOpt = parser.addStringOption('m', "mungemap");
         CmdLineParser.Option preserveUnknownHintsOpt = parser.addBooleanOption('p', "preservehints");
+        CmdLineParser.Option jobsOpt = parser.addStringOption("jobs");
+        CmdLineParser.Option serverOpt = parser.addStringOption("server");
+        CmdLineParser.Option batchOpt = parser.addBooleanOption("batch");
+        CmdLineParser.Option cacheDirOpt = parser.addStringOption("cache-dir");
+        CmdLineParser.Option cacheSizeOpt = parser.addStringOption("cache-size");
+        CmdLineParser.Option cssTokenizerOpt = parser.addBooleanOption("css-tokenizer");
+        CmdLineParser.Option cssStreamOpt = parser.addBooleanOption("css-stream");
 
-        Reader in = null;
-        Writer out = null;
         Writer mungemap = null;
+        int status = 0;
 
         try {
 
@@ -55,6 +59,24 @@ public class YUICompressor {
 
             boolean verbose = parser.getOptionValue(verboseOpt) != null;
 
+            String serverstr = (String) parser.getOptionValue(serverOpt);
+            if (serverstr != null) {
+                int port = -1;
+                try {
+                    port = Integer.parseInt(serverstr, 10);
+                } catch (NumberFormatException e) {
+                    usage();
+                    System.exit(1);
+                }
+                // Only returns if something goes wrong.
+                new CompressorServer(verbose).listen(port);
+            }
+
+            if (parser.getOptionValue(batchOpt) != null) {
+                new CompressorServer(verbose).serve(System.in, System.out);
+                System.exit(0);
+            }
+
             String charset = (String) parser.getOptionValue(charsetOpt);
             if (charset == null || !Charset.isSupported(charset)) {
                 // charset = System.getProperty("file.encoding");
@@ -92,6 +114,39 @@ public class YUICompressor {
             boolean preserveAllSemiColons = parser.getOptionValue(preserveSemiOpt) != null;
             boolean disableOptimizations = parser.getOptionValue(disableOptimizationsOpt) != null;
             boolean preserveUnknownHints = parser.getOptionValue(preserveUnknownHintsOpt) != null;
+            boolean cssTokenizer = parser.getOptionValue(cssTokenizerOpt) != null;
+            boolean cssStream = parser.getOptionValue(cssStreamOpt) != null;
+
+            int jobs = 0;
+            String jobsstr = (String) parser.getOptionValue(jobsOpt);
+            if (jobsstr != null) {
+                try {
+                    jobs = Integer.parseInt(jobsstr, 10);
+                } catch (NumberFormatException e) {
+                    usage();
+                    System.exit(1);
+                }
+                if (jobs < 1) {
+                    usage();
+                    System.exit(1);
+                }
+            }
+
+            CompressorCache cache = null;
+            String cacheDir = (String) parser.getOptionValue(cacheDirOpt);
+            if (cacheDir != null) {
+                long cacheSize = 100;
+                String cacheSizestr = (String) parser.getOptionValue(cacheSizeOpt);
+                if (cacheSizestr != null) {
+                    try {
+                        cacheSize = Long.parseLong(cacheSizestr, 10);
+                    } catch (NumberFormatException e) {
+                        usage();
+                        System.exit(1);
+                    }
+                }
+                cache = new CompressorCache(new File(cacheDir), cacheSize * 1024 * 1024);
+            }
 
             String[] fileArgs = parser.getRemainingArgs();
             java.util.List files = java.util.Arrays.asList(fileArgs);
@@ -124,145 +179,22 @@ public class YUICompressor {
                 System.exit(1);
             }
 
-            java.util.Iterator filenames = files.iterator();
-            while(filenames.hasNext()) {
-                String inputFilename = (String)filenames.next();
-                String type = null;
-                try {
-                    if (inputFilename.equals("-")) {
-
-                        in = new InputStreamReader(System.in, charset);
-                        type = typeOverride;
+            BatchCompressor batch = new BatchCompressor(charset, linebreakpos, munge, verbose,
+                    preserveAllSemiColons, disableOptimizations, preserveUnknownHints,
+                    cssTokenizer, cssStream, typeOverride, output, pattern, cache);
+            status = batch.compress(files, jobs, mungemap);
 
-                    } else {
-
-                        if ( typeOverride != null ) {
-                            type = typeOverride;
-                        }
-                        else {
-                            int idx = inputFilename.lastIndexOf('.');
-                            if (idx >= 0 && idx < inputFilename.length() - 1) {
-                                type = inputFilename.substring(idx + 1);
-                            }
-                        }
-
-                        if (type == null || !type.equalsIgnoreCase("js") && !type.equalsIgnoreCase("css")) {
-                            usage();
-                            System.exit(1);
-                        }
-
-                        in = new InputStreamReader(new FileInputStream(inputFilename), charset);
-                    }
-
-                    String outputFilename = output;
-                    // if a substitution pattern was passed in
-                    if (pattern.length > 1 && files.size() > 0) {
-                        outputFilename = inputFilename.replaceFirst(pattern[0], pattern[1]);
-                    }
-
-                    if (type.equalsIgnoreCase("js")) {
-
-                        try {
-                            final String localFilename = inputFilename;
-
-                            JavaScriptCompressor compressor = new JavaScriptCompressor(in, new ErrorReporter() {
-
-                                public void warning(String message, String sourceName,
-                                        int line, String lineSource, int lineOffset) {
-                                    System.err.println("\n[WARNING] in " + localFilename);
-                                    if (line < 0) {
-                                        System.err.println("  " + message);
-                                    } else {
-                                        System.err.println("  " + line + ':' + lineOffset + ':' + message);
-                                    }
-                                }
-
-                                public void error(String message, String sourceName,
-                                        int line, String lineSource, int lineOffset) {
-                                    System.err.println("[ERROR] in " + localFilename);
-                                    if (line < 0) {
-                                        System.err.println("  " + message);
-                                    } else {
-                                        System.err.println("  " + line + ':' + lineOffset + ':' + message);
-                                    }
-                                }
-
-                                public EvaluatorException runtimeError(String message, String sourceName,
-                                        int line, String lineSource, int lineOffset) {
-                                    error(message, sourceName, line, lineSource, lineOffset);
-                                    return new EvaluatorException(message);
-                                }
-                            });
-
-                            // Close the input stream first, and then open the output stream,
-                            // in case the output file should override the input file.
-                            in.close(); in = null;
-
-                            if (outputFilename == null) {
-                                out = new OutputStreamWriter(System.out, charset);
-                            } else {
-                                out = new OutputStreamWriter(new FileOutputStream(outputFilename), charset);
-                                if (mungemap != null) {
-                                    mungemap.write("\n\nFile: "+outputFilename+"\n\n");
-                                }
-                            }
-
-                            compressor.compress(out, mungemap, linebreakpos, munge, verbose,
-                                    preserveAllSemiColons, disableOptimizations, preserveUnknownHints);
-
-                        } catch (EvaluatorException e) {
-
-                            e.printStackTrace();
-                            // Return a special error code used specifically by the web front-end.
-                            System.exit(2);
-
-                        }
-
-                    } else if (type.equalsIgnoreCase("css")) {
-
-                        CssCompressor compressor = new CssCompressor(in);
-
-                        // Close the input stream first, and then open the output stream,
-                        // in case the output file should override the input file.
-                        in.close(); in = null;
-
-                        if (outputFilename == null) {
-                            out = new OutputStreamWriter(System.out, charset);
-                        } else {
-                            out = new OutputStreamWriter(new FileOutputStream(outputFilename), charset);
-                        }
-
-                        compressor.compress(out, linebreakpos);
-                    }
-
-                } catch (IOException e) {
-
-                    e.printStackTrace();
-                    System.exit(1);
-
-                } finally {
-
-                    if (in != null) {
-                        try {
-                            in.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-
-                    if (out != null) {
-                        try {
-                            out.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
+            if (cache != null) {
+                cache.trim();
             }
         } catch (CmdLineParser.OptionException e) {
 
             usage();
             System.exit(1);
+        } catch (IOException e) {
+
+            e.printStackTrace();
+            System.exit(1);
         } finally {
             if (mungemap !=null) {
                 try {
@@ -272,11 +204,16 @@ public class YUICompressor {
                 }
             }
         }
+
+        if (status != 0) {
+            System.exit(status);
+        }
     }
 
     private static void version() {
         System.err.println("@VERSION@");
     }
+
     private static void usage() {
         System.err.println(
                 "YUICompressor Version: @VERSION@\n"
@@ -291,7 +228,16 @@ public class YUICompressor {
                         + "  --line-break <column>     Insert a line break after the specified column number\n"
                         + "  -v, --verbose             Display informational messages and warnings\n"
                         + "  -p, --preservehints       Don't elide unrecognized compiler hints (e.g. \"use strict\", \"use asm\")\n"
-                        + "  -m <file>                 Place a mapping of munged identifiers to originals in this file\n\n"
+                        + "  -m <file>                 Place a mapping of munged identifiers to originals in this file\n"
+                        + "  --server <port>           Compress the files sent to 127.0.0.1:<port> instead of the input\n"
+                        + "                            files (see CompressorServer.java for the protocol). If <port>\n"
+                        + "                            is 0, the port actually used is printed on stdout.\n"
+                        + "  --batch                   Same as --server, using stdin and stdout instead of a port\n"
+                        + "  --cache-dir <dir>         Reuse the output of previous runs stored in <dir>\n"
+                        + "  --cache-size <megabytes>  Maximum size of the cache directory (defaults to 100)\n"
+                        + "  --jobs <n>                Compress the input files using <n> threads. A failure to\n"
+                        + "                            compress one file does not stop the other ones, and is\n"
+                        + "                            reported at the end.\n\n"
                         + "  -o <file>                 Place the output into <file>. Defaults to stdout.\n"
                         + "                            Multiple files can be processed using the following syntax:\n"
                         + "                            java -jar yuicompressor.jar -o '.css$:-min.css' *.css\n"
@@ -302,6 +248,12 @@ public class YUICompressor {
                         + "  --preserve-semi           Preserve all semicolons\n"
                         + "  --disable-optimizations   Disable all micro optimizations\n\n"
 
+                        + "CSS Options\n"
+                        + "  --css-tokenizer           Tokenize the stylesheet once instead of applying each rule\n"
+                        + "                            to the whole of it (faster on large files)\n"
+                        + "  --css-stream              Compress the stylesheet one rule at a time as it is read\n"
+                        + "                            (uses less memory on large files)\n\n"
+
                         + "If no input file is specified, it defaults to stdin. In this case, the 'type'\n"
                         + "option is required. Otherwise, the 'type' option is required only if the input\n"
                         + "file extension is neither 'js' nor 'css'.");
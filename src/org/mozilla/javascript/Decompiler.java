@@ -92,6 +92,26 @@ public class Decompiler
     // the last RC of object literals in case of function expressions
     private static final int FUNCTION_END = Token.LAST_TOKEN + 1;
 
+    /**
+     * Receives the tokens collected by the decompiler, as an alternative
+     * to the encoded source. The value is null, except for NAME, STRING,
+     * REGEXP, NUMBER, CONDCOMMENT and KEEPCOMMENT tokens, where it is the
+     * same string the encoded source would be decompiled into.
+     */
+    public interface TokenSink
+    {
+        public void addToken(int token, String value);
+    }
+
+    /**
+     * When a token sink is set, the tokens are sent to the sink as they
+     * are added, and the encoded source is left empty.
+     */
+    void setTokenSink(TokenSink sink)
+    {
+        this.sink = sink;
+    }
+
     String getEncodedSource()
     {
         return sourceToString(0);
@@ -106,14 +126,18 @@ public class Decompiler
     {
         int savedOffset = getCurrentOffset();
         addToken(Token.FUNCTION);
-        append((char)functionType);
+        if (sink == null) {
+            append((char)functionType);
+        }
         return savedOffset;
     }
 
     int markFunctionEnd(int functionStart)
     {
         int offset = getCurrentOffset();
-        append((char)FUNCTION_END);
+        if (sink == null) {
+            append((char)FUNCTION_END);
+        }
         return offset;
     }
 
@@ -122,7 +146,11 @@ public class Decompiler
         if (!(0 <= token && token <= Token.LAST_TOKEN))
             throw new IllegalArgumentException();
 
-        append((char)token);
+        if (sink != null) {
+            sink.addToken(token, null);
+        } else {
+            append((char)token);
+        }
     }
 
     void addEOL(int token)
@@ -130,42 +158,57 @@ public class Decompiler
         if (!(0 <= token && token <= Token.LAST_TOKEN))
             throw new IllegalArgumentException();
 
-        append((char)token);
-        append((char)Token.EOL);
+        if (sink != null) {
+            sink.addToken(token, null);
+            sink.addToken(Token.EOL, null);
+        } else {
+            append((char)token);
+            append((char)Token.EOL);
+        }
     }
 
     void addName(String str)
     {
-        addToken(Token.NAME);
-        appendString(str);
+        addString(Token.NAME, str);
     }
 
     void addString(String str)
     {
-        addToken(Token.STRING);
-        appendString(str);
+        addString(Token.STRING, str);
     }
 
     void addRegexp(String regexp, String flags)
     {
-        addToken(Token.REGEXP);
-        appendString('/' + regexp + '/' + flags);
+        addString(Token.REGEXP, '/' + regexp + '/' + flags);
     }
 
     void addJScriptConditionalComment(String str)
     {
-        addToken(Token.CONDCOMMENT);
-        appendString(str);
+        addString(Token.CONDCOMMENT, str);
     }
 
     void addPreservedComment(String str)
     {
-        addToken(Token.KEEPCOMMENT);
-        appendString(str);
+        addString(Token.KEEPCOMMENT, str);
+    }
+
+    private void addString(int token, String str)
+    {
+        if (sink != null) {
+            sink.addToken(token, str);
+        } else {
+            append((char)token);
+            appendString(str);
+        }
     }
 
     void addNumber(double n)
     {
+        if (sink != null) {
+            sink.addToken(Token.NUMBER, ScriptRuntime.numberToString(n, 10));
+            return;
+        }
+
         addToken(Token.NUMBER);
 
         /* encode the number in the source stream.
@@ -904,6 +947,8 @@ public class Decompiler
         return offset;
     }
 
+    private TokenSink sink;
+
     private char[] sourceBuffer = new char[128];
 
 // Per script/function source buffer top: parent source does not include a
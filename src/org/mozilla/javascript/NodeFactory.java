@@ -0,0 +1,464 @@
+/* ***** BEGIN LICENSE BLOCK *****
+*
+* Version: MPL 1.1
+*
+* The contents of this file are subject to the Mozilla Public License
+* Version 1.1 (the "License"); you may not use this file except in
+* compliance with the License. You may obtain a copy of the License
+* at http://www.mozilla.org/MPL/
+*
+* Software distributed under the License is distributed on an "AS IS"
+* basis, WITHOUT WARRANTY OF ANY KIND, either express or implied.
+* See the License for the specific language governing rights and
+* limitations under the License.
+*
+* This file was developed for YUI Compressor, as a companion to the
+* modified org/mozilla/javascript/Parser.java.
+*
+* Contributor(s): Yahoo! Inc. 2011
+*
+* ***** END LICENSE BLOCK ***** */
+
+package org.mozilla.javascript;
+
+/**
+ * Node factory used by the parser.
+ *
+ * By default, every call is forwarded to IRFactory, and the parser builds
+ * the same tree as the original Rhino parser. When only the encoded source
+ * is needed (the parser is then only used to drive the Decompiler), the
+ * tree is not built: expressions and statements are represented by a
+ * handful of placeholder nodes, which carry just enough information (their
+ * type) to report the same syntax errors as IRFactory. Functions, scopes,
+ * loops and labels are still created, as the parser relies on them to
+ * detect redeclarations and invalid break/continue statements.
+ *
+ * The placeholder nodes are shared by all the expressions of a given parse,
+ * so they must never be inspected beyond their type, and the parser must
+ * not modify them: children are added through addChildToBack, which does
+ * nothing in that mode. Destructuring assignments are not validated either.
+ */
+final class NodeFactory
+{
+    private Parser parser;
+    private IRFactory ir;
+
+    private Node name;
+    private Node propertyGet;
+    private Node elementGet;
+    private Node call;
+    private Node reference;
+    private Node descendantsReference;
+    private Node arrayLiteral;
+    private Node objectLiteral;
+    private Node other;
+
+    NodeFactory(Parser parser, boolean sourceOnly)
+    {
+        this.parser = parser;
+        if (sourceOnly) {
+            name = new Node(Token.NAME);
+            propertyGet = new Node(Token.GETPROP);
+            elementGet = new Node(Token.GETELEM);
+            call = new Node(Token.CALL);
+            reference = new Node(Token.GET_REF);
+            descendantsReference = new Node(Token.GET_REF);
+            arrayLiteral = new Node(Token.ARRAYLIT);
+            objectLiteral = new Node(Token.OBJECTLIT);
+            other = new Node(Token.EMPTY);
+        } else {
+            ir = new IRFactory(parser);
+        }
+    }
+
+    /*
+     * Declaration list (var, let or const) built in source only mode. It
+     * keeps track of what IRFactory.createForIn needs to know about it.
+     */
+    private static final class Variables extends Node
+    {
+        int count;
+        int lastType;
+
+        Variables(int declType)
+        {
+            super(declType);
+        }
+    }
+
+    ScriptOrFnNode createScript()
+    {
+        return ir != null ? ir.createScript()
+                          : new ScriptOrFnNode(Token.SCRIPT);
+    }
+
+    void initScript(ScriptOrFnNode scriptNode, Node body)
+    {
+        if (ir != null) {
+            ir.initScript(scriptNode, body);
+        }
+    }
+
+    Node createLeaf(int nodeType)
+    {
+        return ir != null ? ir.createLeaf(nodeType) : other;
+    }
+
+    Node createSwitch(Node expr, int lineno)
+    {
+        return ir != null ? ir.createSwitch(expr, lineno) : other;
+    }
+
+    void addSwitchCase(Node switchBlock, Node caseExpression, Node statements)
+    {
+        if (ir != null) {
+            ir.addSwitchCase(switchBlock, caseExpression, statements);
+        }
+    }
+
+    void closeSwitch(Node switchBlock)
+    {
+        if (ir != null) {
+            ir.closeSwitch(switchBlock);
+        }
+    }
+
+    Node createVariables(int token, int lineno)
+    {
+        return ir != null ? ir.createVariables(token, lineno)
+                          : new Variables(token);
+    }
+
+    Node createExprStatement(Node expr, int lineno)
+    {
+        return ir != null ? ir.createExprStatement(expr, lineno) : other;
+    }
+
+    Node createExprStatementNoReturn(Node expr, int lineno)
+    {
+        return ir != null ? ir.createExprStatementNoReturn(expr, lineno)
+                          : other;
+    }
+
+    Node createDefaultNamespace(Node expr, int lineno)
+    {
+        return ir != null ? ir.createDefaultNamespace(expr, lineno) : other;
+    }
+
+    Node createName(String name)
+    {
+        return ir != null ? ir.createName(name) : this.name;
+    }
+
+    Node createString(String string)
+    {
+        return ir != null ? ir.createString(string) : other;
+    }
+
+    Node createNumber(double number)
+    {
+        return ir != null ? ir.createNumber(number) : other;
+    }
+
+    Node createCatch(String varName, Node catchCond, Node stmts, int lineno)
+    {
+        return ir != null ? ir.createCatch(varName, catchCond, stmts, lineno)
+                          : other;
+    }
+
+    Node createThrow(Node expr, int lineno)
+    {
+        return ir != null ? ir.createThrow(expr, lineno) : other;
+    }
+
+    Node createReturn(Node expr, int lineno)
+    {
+        return ir != null ? ir.createReturn(expr, lineno) : other;
+    }
+
+    Node createDebugger(int lineno)
+    {
+        return ir != null ? ir.createDebugger(lineno) : other;
+    }
+
+    Node createLabel(int lineno)
+    {
+        // Labels are needed to resolve 'continue label' statements.
+        return ir != null ? ir.createLabel(lineno)
+                          : new Node.Jump(Token.LABEL, lineno);
+    }
+
+    Node getLabelLoop(Node label)
+    {
+        return ((Node.Jump)label).getLoop();
+    }
+
+    Node createLabeledStatement(Node labelArg, Node statement)
+    {
+        return ir != null ? ir.createLabeledStatement(labelArg, statement)
+                          : other;
+    }
+
+    Node createBreak(Node breakStatement, int lineno)
+    {
+        return ir != null ? ir.createBreak(breakStatement, lineno) : other;
+    }
+
+    Node createContinue(Node loop, int lineno)
+    {
+        return ir != null ? ir.createContinue(loop, lineno) : other;
+    }
+
+    Node createBlock(int lineno)
+    {
+        // The parser adds nodes to function bodies directly, so each block
+        // gets its own node.
+        return ir != null ? ir.createBlock(lineno) : new Node(Token.BLOCK);
+    }
+
+    FunctionNode createFunction(String name)
+    {
+        return ir != null ? ir.createFunction(name) : new FunctionNode(name);
+    }
+
+    Node initFunction(FunctionNode fnNode, int functionIndex,
+                      Node statements, int functionType)
+    {
+        if (ir != null) {
+            return ir.initFunction(fnNode, functionIndex, statements,
+                                   functionType);
+        }
+        return fnNode;
+    }
+
+    void addChildToBack(Node parent, Node child)
+    {
+        if (ir != null) {
+            ir.addChildToBack(parent, child);
+        } else if (parent instanceof Variables) {
+            Variables variables = (Variables) parent;
+            variables.count++;
+            variables.lastType = child.getType();
+        }
+    }
+
+    Node createScopeNode(int token, int lineno)
+    {
+        return ir != null ? ir.createScopeNode(token, lineno)
+                          : new Node.Scope(token, lineno);
+    }
+
+    Node createLoopNode(Node loopLabel, int lineno)
+    {
+        if (ir != null) {
+            return ir.createLoopNode(loopLabel, lineno);
+        }
+        Node.Scope result = new Node.Scope(Token.LOOP, lineno);
+        if (loopLabel != null) {
+            ((Node.Jump)loopLabel).setLoop(result);
+        }
+        return result;
+    }
+
+    Node createWhile(Node loop, Node cond, Node body)
+    {
+        return ir != null ? ir.createWhile(loop, cond, body) : other;
+    }
+
+    Node createDoWhile(Node loop, Node body, Node cond)
+    {
+        return ir != null ? ir.createDoWhile(loop, body, cond) : other;
+    }
+
+    Node createFor(Node loop, Node init, Node test, Node incr, Node body)
+    {
+        return ir != null ? ir.createFor(loop, init, test, incr, body) : other;
+    }
+
+    Node createForIn(int declType, Node loop, Node lhs, Node obj, Node body,
+                     boolean isForEach)
+    {
+        if (ir != null) {
+            return ir.createForIn(declType, loop, lhs, obj, body, isForEach);
+        }
+        if (lhs instanceof Variables) {
+            Variables variables = (Variables) lhs;
+            if (variables.count > 1) {
+                parser.reportError("msg.mult.index");
+            }
+            if (variables.lastType != Token.ARRAYLIT &&
+                variables.lastType != Token.OBJECTLIT &&
+                variables.lastType != Token.NAME) {
+                parser.reportError("msg.bad.for.in.lhs");
+            }
+        } else if (lhs.getType() != Token.ARRAYLIT &&
+                   lhs.getType() != Token.OBJECTLIT) {
+            if (!isReference(lhs)) {
+                parser.reportError("msg.bad.for.in.lhs");
+            } else if (lhs == descendantsReference) {
+                parser.reportError("msg.bad.assign.left");
+            }
+        }
+        return other;
+    }
+
+    Node createTryCatchFinally(Node tryBlock, Node catchBlocks,
+                               Node finallyBlock, int lineno)
+    {
+        return ir != null ? ir.createTryCatchFinally(tryBlock, catchBlocks,
+                                                     finallyBlock, lineno)
+                          : other;
+    }
+
+    Node createWith(Node obj, Node body, int lineno)
+    {
+        return ir != null ? ir.createWith(obj, body, lineno) : other;
+    }
+
+    Node createDotQuery(Node obj, Node body, int lineno)
+    {
+        return ir != null ? ir.createDotQuery(obj, body, lineno) : other;
+    }
+
+    Node createArrayLiteral(ObjArray elems, int skipCount,
+                            int destructuringLength)
+    {
+        return ir != null ? ir.createArrayLiteral(elems, skipCount,
+                                                  destructuringLength)
+                          : arrayLiteral;
+    }
+
+    Node createObjectLiteral(ObjArray elems)
+    {
+        return ir != null ? ir.createObjectLiteral(elems) : objectLiteral;
+    }
+
+    Node createRegExp(int regexpIndex)
+    {
+        return ir != null ? ir.createRegExp(regexpIndex) : other;
+    }
+
+    Node createIf(Node cond, Node ifTrue, Node ifFalse, int lineno)
+    {
+        return ir != null ? ir.createIf(cond, ifTrue, ifFalse, lineno) : other;
+    }
+
+    Node createCondExpr(Node cond, Node ifTrue, Node ifFalse)
+    {
+        return ir != null ? ir.createCondExpr(cond, ifTrue, ifFalse) : other;
+    }
+
+    Node createUnary(int nodeType, Node child)
+    {
+        return ir != null ? ir.createUnary(nodeType, child) : other;
+    }
+
+    Node createYield(Node child, int lineno)
+    {
+        if (ir != null) {
+            return ir.createYield(child, lineno);
+        }
+        if (!parser.insideFunction()) {
+            parser.reportError("msg.bad.yield");
+        }
+        return other;
+    }
+
+    Node createCallOrNew(int nodeType, Node child)
+    {
+        if (ir != null) {
+            return ir.createCallOrNew(nodeType, child);
+        }
+        return nodeType == Token.CALL ? call : other;
+    }
+
+    Node createIncDec(int nodeType, boolean post, Node child)
+    {
+        if (ir != null) {
+            return ir.createIncDec(nodeType, post, child);
+        }
+        if (!isReference(child)) {
+            parser.reportError(nodeType == Token.DEC ? "msg.bad.decr"
+                                                     : "msg.bad.incr");
+        }
+        return other;
+    }
+
+    Node createPropertyGet(Node target, String namespace, String name,
+                           int memberTypeFlags)
+    {
+        if (ir != null) {
+            return ir.createPropertyGet(target, namespace, name,
+                                        memberTypeFlags);
+        }
+        if (namespace == null && memberTypeFlags == 0) {
+            return target == null ? this.name : propertyGet;
+        }
+        return createReference(memberTypeFlags);
+    }
+
+    Node createElementGet(Node target, String namespace, Node elem,
+                          int memberTypeFlags)
+    {
+        if (ir != null) {
+            return ir.createElementGet(target, namespace, elem,
+                                       memberTypeFlags);
+        }
+        if (namespace == null && memberTypeFlags == 0) {
+            return elementGet;
+        }
+        return createReference(memberTypeFlags);
+    }
+
+    Node createBinary(int nodeType, Node left, Node right)
+    {
+        return ir != null ? ir.createBinary(nodeType, left, right) : other;
+    }
+
+    Node createAssignment(int assignType, Node left, Node right)
+    {
+        if (ir != null) {
+            return ir.createAssignment(assignType, left, right);
+        }
+        int type = left.getType();
+        if (type == Token.ARRAYLIT || type == Token.OBJECTLIT) {
+            if (assignType != Token.ASSIGN) {
+                parser.reportError("msg.bad.destruct.op");
+            }
+        } else if (!isReference(left) || left == descendantsReference) {
+            parser.reportError("msg.bad.assign.left");
+        }
+        return other;
+    }
+
+    Node createDestructuringAssignment(int type, Node left, Node right)
+    {
+        return ir != null ? ir.createDestructuringAssignment(type, left, right)
+                          : other;
+    }
+
+    /*
+     * E4X member references (x.@y, x..y, x.ns::y).
+     */
+    private Node createReference(int memberTypeFlags)
+    {
+        return (memberTypeFlags & Node.DESCENDANTS_FLAG) != 0
+               ? descendantsReference : reference;
+    }
+
+    /*
+     * Same test as IRFactory.makeReference.
+     */
+    private static boolean isReference(Node node)
+    {
+        switch (node.getType()) {
+          case Token.NAME:
+          case Token.GETPROP:
+          case Token.GETELEM:
+          case Token.GET_REF:
+          case Token.CALL:
+            return true;
+        }
+        return false;
+    }
+}
@@ -62,11 +62,13 @@ public class Parser
     private int currentFlaggedToken;
     private int syntaxErrorCount;
 
-    private IRFactory nf;
+    private NodeFactory nf;
+    private boolean sourceOnly;
 
     private int nestingOfFunction;
 
     private Decompiler decompiler;
+    private Decompiler.TokenSink tokenSink;
     private String encodedSource;
 
 // The following are per function variables and should be saved/restored
@@ -97,6 +99,27 @@ public class Parser
         this.errorReporter = errorReporter;
     }
 
+    /**
+     * When set, the parser only collects the source (see getEncodedSource
+     * and setTokenSink) and the parse tree returned by parse is empty.
+     * This saves building the tree when only the source is needed.
+     * Strict mode warnings which depend on the tree are not reported
+     * in that mode.
+     */
+    public void setSourceOnly(boolean sourceOnly)
+    {
+        this.sourceOnly = sourceOnly;
+    }
+
+    /**
+     * Sends the tokens collected for the decompiler to the given sink
+     * instead of building the encoded source.
+     */
+    public void setTokenSink(Decompiler.TokenSink tokenSink)
+    {
+        this.tokenSink = tokenSink;
+    }
+
     protected Decompiler createDecompiler(CompilerEnvirons compilerEnv)
     {
         return new Decompiler();
@@ -344,7 +367,8 @@ public class Parser
         throws IOException
     {
         this.decompiler = createDecompiler(compilerEnv);
-        this.nf = new IRFactory(this);
+        decompiler.setTokenSink(tokenSink);
+        this.nf = new NodeFactory(this, sourceOnly);
         currentScriptOrFn = nf.createScript();
         currentScope = currentScriptOrFn;
         int sourceStartOffset = decompiler.getCurrentOffset();
@@ -513,7 +537,8 @@ public class Parser
             // of with object.
             fnNode.itsIgnoreDynamicScope = true;
         }
-        int functionIndex = currentScriptOrFn.addFunction(fnNode);
+        int functionIndex = sourceOnly ? -1
+                                       : currentScriptOrFn.addFunction(fnNode);
 
         int functionSourceEnd;
 
@@ -553,7 +578,7 @@ public class Parser
                         }
                         String parmName = currentScriptOrFn.getNextTempName();
                         defineSymbol(Token.LP, false, parmName);
-                        destructuring.addChildToBack(
+                        nf.addChildToBack(destructuring,
                             nf.createDestructuringAssignment(Token.VAR,
                                 primaryExpr(), nf.createName(parmName)));
                     } else {
@@ -577,7 +602,8 @@ public class Parser
             }
             mustMatchToken(Token.RC, "msg.no.brace.after.body");
 
-            if (compilerEnv.isStrictMode() && !body.hasConsistentReturnUsage())
+            if (compilerEnv.isStrictMode() && !sourceOnly &&
+                !body.hasConsistentReturnUsage())
             {
               String msg = name.length() > 0 ? "msg.no.return.value"
                                              : "msg.anon.no.return.value";
@@ -687,7 +713,8 @@ public class Parser
         try {
             Node pn = statementHelper(null);
             if (pn != null) {
-                if (compilerEnv.isStrictMode() && !pn.hasSideEffects())
+                if (compilerEnv.isStrictMode() && !sourceOnly &&
+                    !pn.hasSideEffects())
                     addStrictWarning("msg.no.side.effects", "");
                 return pn;
             }
@@ -1504,7 +1531,8 @@ public class Parser
         Node pn = assignExpr(inForInit);
         while (matchToken(Token.COMMA)) {
             decompiler.addToken(Token.COMMA);
-            if (compilerEnv.isStrictMode() && !pn.hasSideEffects())
+            if (compilerEnv.isStrictMode() && !sourceOnly &&
+                !pn.hasSideEffects())
                 addStrictWarning("msg.no.side.effects", "");
             if (peekToken() == Token.YIELD) {
               reportError("msg.yield.parenthesized");
@@ -2192,7 +2220,7 @@ public class Parser
             Node call = nf.createCallOrNew(Token.CALL,
                 nf.createPropertyGet(nf.createName(arrayName), null,
                                      "push", 0));
-            call.addChildToBack(expr);
+            nf.addChildToBack(call, expr);
             body = new Node(Token.EXPR_VOID, call, ts.getLineno());
             if (tt == Token.IF) {
                 consumeToken();
@@ -2272,11 +2300,11 @@ public class Parser
                                 nf.createName(tempName),
                                 nf.createCallOrNew(Token.NEW,
                                     nf.createName("Array"))), ts.getLineno());
-                        block.addChildToBack(init);
-                        block.addChildToBack(arrayComprehension(tempName, 
+                        nf.addChildToBack(block, init);
+                        nf.addChildToBack(block, arrayComprehension(tempName,
                             expr));
-                        scopeNode.addChildToBack(block);
-                        scopeNode.addChildToBack(nf.createName(tempName));
+                        nf.addChildToBack(scopeNode, block);
+                        nf.addChildToBack(scopeNode, nf.createName(tempName));
                         return scopeNode;
                     } finally {
                         popScope();
@@ -2383,7 +2411,10 @@ public class Parser
              * think) in the C IR as 'function call.'  */
             decompiler.addToken(Token.LP);
             pn = expr(false);
-            pn.putProp(Node.PARENTHESIZED_PROP, Boolean.TRUE);
+            if (!sourceOnly) {
+                // Placeholder nodes are shared in source only mode.
+                pn.putProp(Node.PARENTHESIZED_PROP, Boolean.TRUE);
+            }
             decompiler.addToken(Token.RP);
             mustMatchToken(Token.RP, "msg.no.paren");
             return pn;
@@ -2492,8 +2523,13 @@ public class Parser
             reportError("msg.bad.prop");
             return false;
         }
-        int fnIndex = f.getExistingIntProp(Node.FUNCTION_PROP);
-        FunctionNode fn = currentScriptOrFn.getFunctionNode(fnIndex);
+        FunctionNode fn;
+        if (sourceOnly) {
+            fn = (FunctionNode) f;
+        } else {
+            int fnIndex = f.getExistingIntProp(Node.FUNCTION_PROP);
+            fn = currentScriptOrFn.getFunctionNode(fnIndex);
+        }
         if (fn.getFunctionName().length() != 0) {
             reportError("msg.bad.prop");
             return false;
@@ -0,0 +1,95 @@
+#!/usr/bin/env bash
+
+# Compresses stylesheets crafted to make backtracking regular expressions
+# blow up (long runs of text which almost match a rule), at two sizes, and
+# checks that the extra time taken by the larger ones stays below a bound
+# per byte, i.e. that the time grows linearly with the size of the input.
+#
+# Usage: ./adversarial.sh [repeat] [max-us-per-byte]
+
+cd $(dirname $0)
+
+repeat="${1:-20000}"
+bound="${2:-20}"
+
+# Get the jar to use.
+jar="$(ls ../build/*.jar | sort | tail -n1)"
+echo "jar: $jar"
+
+dir="$(mktemp -d)"
+trap "rm -rf $dir" EXIT
+
+# Writes the stylesheet $1 with its pattern repeated $2 times.
+generate () {
+	awk -v kind=$1 -v n=$2 'BEGIN {
+		if (kind == "colons") {
+			# selectors with colons, never followed by {
+			for (i = 0; i < n; i++) printf "}a:b";
+		} else if (kind == "colors") {
+			# colors never followed by }
+			printf "a{b:";
+			for (i = 0; i < n; i++) printf "#aabbcc ";
+		} else if (kind == "selectors") {
+			# a single rule with a very long list of selectors
+			for (i = 0; i < n; i++) printf ".c%d,", i;
+			printf "p{x:y}";
+		} else if (kind == "rgb") {
+			# rgb() never closed
+			printf "a{b:";
+			for (i = 0; i < n; i++) printf "rgb(1,2,3 ";
+		} else if (kind == "zeros") {
+			# a long list of zero lengths, e.g. in box-shadow
+			printf "a{b:";
+			for (i = 0; i < n; i++) printf "0px ";
+			printf "}";
+		} else if (kind == "groups") {
+			# a long list of zero lengths in a function
+			printf "a{b:f(";
+			for (i = 0; i < n; i++) printf "0px,";
+			printf ")}";
+		}
+	}'
+}
+
+now () {
+	date +%s%N
+}
+
+# Prints the time in ms it takes to compress $1, or fails if it takes
+# longer than the bound allows.
+measure () {
+	limit=$(( 10 + $(wc -c < $1) * bound / 1000000 ))
+	start=$(now)
+	timeout $limit java -jar $jar $options --type css $1 > /dev/null 2>&1 || return 1
+	end=$(now)
+	echo $(( (end - start) / 1000000 ))
+}
+
+status=0
+
+for options in "" "--css-tokenizer"; do
+	for kind in colons colors selectors rgb zeros groups; do
+		small=$dir/$kind-small.css
+		large=$dir/$kind-large.css
+		generate $kind $repeat > $small
+		generate $kind $(( repeat * 4 )) > $large
+
+		label="$kind${options:+ ($options)}"
+		if ! tsmall=$(measure $small) || ! tlarge=$(measure $large); then
+			echo "FAILED $label: timed out or failed" >&2
+			status=1
+			continue
+		fi
+
+		bytes=$(( $(wc -c < $large) - $(wc -c < $small) ))
+		perbyte=$(( (tlarge - tsmall) * 1000 / bytes ))
+		if [ $perbyte -gt $bound ]; then
+			echo "FAILED $label: $tsmall ms, $tlarge ms ($perbyte us per byte)" >&2
+			status=1
+		else
+			echo "$label: $tsmall ms, $tlarge ms ($perbyte us per byte)"
+		fi
+	done
+done
+
+exit $status
@@ -0,0 +1,74 @@
+#!/usr/bin/env bash
+
+# Times the compressor on every test file of the given type, and on a large
+# synthetic bundle made of all these files repeated many times. For CSS, also
+# times a stylesheet holding many preserved tokens (strings, data URIs and
+# /*! comments), and one inlining large data URIs.
+#
+# Usage: ./benchmark.sh [js|css] [copies] [runs] [tokens]
+
+cd $(dirname $0)
+
+filetype="${1:-js}"
+copies="${2:-50}"
+runs="${3:-5}"
+tokens="${4:-10000}"
+
+# Get the jar to use.
+jar="$(ls ../build/*.jar | sort | tail -n1)"
+echo "jar: $jar"
+
+bundle="$(mktemp)"
+preserved="$(mktemp)"
+datauris="$(mktemp)"
+trap "rm -f $bundle $preserved $datauris" EXIT
+
+files="$(ls *.$filetype | grep -v '^_syntax_error')"
+
+for i in $(seq $copies); do
+	for file in $files; do
+		if [ "$filetype" == "js" ]; then
+			# Wrap each file in its own scope so that the bundle has
+			# plenty of local symbols to munge.
+			echo "(function(){"
+			cat $file
+			echo "})();"
+		else
+			cat $file
+		fi
+	done
+done > $bundle
+
+now () {
+	date +%s%N
+}
+
+bench () {
+	label="$1"
+	file="$2"
+	start=$(now)
+	for i in $(seq $runs); do
+		java -jar $jar --type $filetype $file > /dev/null 2>&1
+	done
+	end=$(now)
+	echo "$label: $(( (end - start) / runs / 1000000 )) ms"
+}
+
+for file in $files; do
+	bench "$file" "$file"
+done
+
+bench "bundle ($(wc -c < $bundle) bytes)" "$bundle"
+
+if [ "$filetype" == "css" ]; then
+	for i in $(seq $(( tokens / 4 ))); do
+		echo "/*! rule $i */"
+		echo ".r$i{content:\"$i\";font-family:'f$i';background:url(data:image/png;base64,R0lGOD$i)}"
+	done > $preserved
+	bench "preserved tokens ($tokens)" "$preserved"
+
+	for i in $(seq 100); do
+		echo ".d$i{background:url(data:image/png;base64,$(head -c 100000 /dev/urandom | base64 -w0))}"
+	done > $datauris
+	bench "data URIs ($(wc -c < $datauris) bytes)" "$datauris"
+fi
@@ -0,0 +1,42 @@
+#!/usr/bin/env bash
+
+# Measures the time it takes the --batch mode to serve many small CSS
+# requests, i.e. the cost of each request once the JVM has started. The
+# requests are made of the CSS test files, repeated.
+#
+# Usage: ./requests.sh [requests] [jar...]
+
+cd $(dirname $0)
+
+requests="${1:-5000}"
+shift
+
+# Get the jars to use, by default the one just built.
+jars="$@"
+if [ -z "$jars" ]; then
+	jars="$(ls ../build/*.jar | sort | tail -n1)"
+fi
+
+input="$(mktemp)"
+trap "rm -f $input" EXIT
+
+files=(*.css)
+for i in $(seq $requests); do
+	file=${files[$(( i % ${#files[@]} ))]}
+	echo "type=css"
+	wc -c < $file
+	cat $file
+done > $input
+
+now () {
+	date +%s%N
+}
+
+for jar in $jars; do
+	# A first run, to leave the JIT out of the measure as much as possible.
+	java -jar $jar --batch < $input > /dev/null
+	start=$(now)
+	java -jar $jar --batch < $input > /dev/null
+	end=$(now)
+	echo "$jar: $requests requests in $(( (end - start) / 1000000 )) ms, $(( (end - start) / requests / 1000 )) us per request"
+done
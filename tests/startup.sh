@@ -0,0 +1,41 @@
+#!/usr/bin/env bash
+
+# Compares the time it takes to compress a small file from the command line,
+# with and without the class data sharing archive built by "ant build.cds"
+#
+# Usage: ./startup.sh [runs]
+
+cd $(dirname $0)
+
+runs="${1:-20}"
+
+# Get the jar and the archive to use.
+jar="$(ls ../build/*.jar | sort | tail -n1)"
+cds="${jar%.jar}.jsa"
+echo "jar: $jar"
+
+if [ ! -f "$cds" ]; then
+	echo "$cds not found, run 'ant build.cds' first" > /dev/stderr
+	exit 1
+fi
+
+main=com.yahoo.platform.yui.compressor.YUICompressor
+
+now () {
+	date +%s%N
+}
+
+bench () {
+	label="$1"
+	shift
+	start=$(now)
+	for i in $(seq $runs); do
+		java "$@" float.js > /dev/null
+	done
+	end=$(now)
+	echo "$label: $(( (end - start) / runs / 1000000 )) ms"
+}
+
+bench "java -jar" -jar $jar
+bench "java -cp" -cp $jar $main
+bench "java -cp with archive" -XX:SharedArchiveFile=$cds -Xshare:auto -Xlog:disable -Xlog:all=error:stderr -cp $jar $main
@@ -15,9 +15,12 @@ runtest () {
 	filetype="$(
 		echo $testfile | egrep -o '(cs|j)s'
 	)"
+	options="$(
+		cat ${testfile/\.FAIL/}.options 2>/dev/null
+	)"
 	
 	actual="$(
-	    java -jar $jar --type $filetype $testfile
+	    java -jar $jar --type $filetype $options $testfile
 	)"
 	
 	if [ "$expected" == "$actual" ]; then